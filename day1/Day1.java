@@ -1,54 +1,427 @@
 package day1;
 
 import util.Day;
-import util.FileLoader;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
+import static java.lang.Math.min;
+
 public class Day1 implements Day {
     /**
-     * Find the values of the first and last elements of a text digit representation in a string and
+     * An Aho-Corasick automaton over a set of keys. The failure links are folded into a full
+     * transition table so matching is one table lookup per character. A reversed automaton is
+     * built from the reversed keys and scans from the end of a line, which finds the last match.
+     */
+    private class Automaton {
+        // Character to symbol index, -1 if the character isn't in any key
+        private final int[] alphabet = new int[128];
+        private final int[][] transitions;
+        // Value of the longest key ending in each state, -1 if there isn't one
+        private final int[] values;
+        private final boolean reversed;
+
+        /**
+         * Build the automaton
+         * @param keys map of keys and their values
+         * @param reversed if true, match the reversed keys scanning from the end of a line
+         */
+        public Automaton(Map<String, Integer> keys, boolean reversed) {
+            this.reversed = reversed;
+            Arrays.fill(alphabet, -1);
+            int symbols = 0;
+            for( String key : keys.keySet() ) {
+                for( char c : key.toCharArray() ) {
+                    if( c < alphabet.length && alphabet[c] < 0 ) alphabet[c] = symbols++;
+                }
+            }
+
+            // Build the trie
+            List<int[]> trie = new ArrayList<>();
+            List<Integer> keyValues = new ArrayList<>();
+            trie.add(newState(symbols));
+            keyValues.add(-1);
+            for( Map.Entry<String, Integer> entry : keys.entrySet() ) {
+                String key = reversed ? new StringBuilder(entry.getKey()).reverse().toString() : entry.getKey();
+                int state = 0;
+                for( char c : key.toCharArray() ) {
+                    int symbol = c < alphabet.length ? alphabet[c] : -1;
+                    if( symbol < 0 ) break;
+                    if( trie.get(state)[symbol] < 0 ) {
+                        trie.get(state)[symbol] = trie.size();
+                        trie.add(newState(symbols));
+                        keyValues.add(-1);
+                    }
+                    state = trie.get(state)[symbol];
+                }
+                keyValues.set(state, entry.getValue());
+            }
+
+            // Breadth first through the trie filling in the missing transitions from the failure links
+            transitions = trie.toArray(new int[0][]);
+            values = keyValues.stream().mapToInt(Integer::intValue).toArray();
+            int[] failure = new int[transitions.length];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for( int symbol = 0; symbol < symbols; symbol++ ) {
+                int child = transitions[0][symbol];
+                if( child < 0 ) {
+                    transitions[0][symbol] = 0;
+                } else {
+                    queue.add(child);
+                }
+            }
+            while( !queue.isEmpty() ) {
+                int state = queue.poll();
+                if( values[state] < 0 ) values[state] = values[failure[state]];
+                for( int symbol = 0; symbol < symbols; symbol++ ) {
+                    int child = transitions[state][symbol];
+                    if( child < 0 ) {
+                        transitions[state][symbol] = transitions[failure[state]][symbol];
+                    } else {
+                        failure[child] = transitions[failure[state]][symbol];
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+
+        private int[] newState(int symbols) {
+            int[] state = new int[symbols];
+            Arrays.fill(state, -1);
+            return state;
+        }
+
+        /**
+         * Find the value of the first key in a line, or the last key if this automaton is reversed.
+         * The search stops at the first match in the direction of the scan. Matching is not
+         * case-sensitive.
+         * @param buffer bytes holding the line
+         * @param from index of the first byte of the line
+         * @param to index after the last byte of the line
+         * @return value of the key found or -1 if there are no keys in the line
+         */
+        public int find(ByteBuffer buffer, int from, int to) {
+            int state = 0;
+            for( int idx = 0; idx < to - from; idx++ ) {
+                int c = buffer.get(reversed ? to - 1 - idx : from + idx) & 0xff;
+                if( c >= 'A' && c <= 'Z' ) c += 'a' - 'A';
+                int symbol = c < alphabet.length ? alphabet[c] : -1;
+                if( symbol < 0 ) {
+                    state = 0;
+                    continue;
+                }
+                state = transitions[state][symbol];
+                if( values[state] >= 0 ) return values[state];
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Find the values of the first and last elements of a text digit representation in a line and
      * return it as a 2 digit integer.
-     * @param line file contents
-     * @param digits map of text representations of digits and their numeric values.
+     * @param buffer bytes holding the line
+     * @param from index of the first byte of the line
+     * @param to index after the last byte of the line
+     * @param forward automaton over the text representations of digits
+     * @param backward reversed automaton over the text representations of digits
      * @return integer created by the first digit * 10 + the last digit. 0 if there are no digits.
      */
-    private int firstAndLast(String line, Map<String, Integer> digits) {
-        int first = 0, last = 0;
-        int firstIdx = 20000;
-        int lastIdx = -1;
-        int idx;
-        String lcase = line.toLowerCase();
-        for( String key : digits.keySet()) {
-            if( (idx = lcase.indexOf(key)) > -1) {
-                if( idx < firstIdx ) {
-                    firstIdx = idx;
-                    first = digits.get(key);
+    private int firstAndLast(ByteBuffer buffer, int from, int to, Automaton forward, Automaton backward) {
+        int first = forward.find(buffer, from, to);
+        if( first < 0 ) return 0;
+        return first * 10 + backward.find(buffer, from, to);
+    }
+
+    /**
+     * Sums part 1 calibration values straight from the bytes of a file. The state is carried from
+     * one buffer to the next so a line can be split across buffers. Subclasses can look at each
+     * line as its newline goes past by overriding endLine.
+     */
+    private static class DigitScanner {
+        private static final long ONES = 0x0101010101010101L;
+        private static final long HIGHS = 0x8080808080808080L;
+        private static final long NEWLINES = ONES * '\n';
+
+        private long sum = 0;
+        private int first = -1;
+        private int last = -1;
+        // index in the current buffer of the start of the current line
+        protected int lineStart = 0;
+
+        /**
+         * Checks if any byte in a word is an ASCII digit or a newline. Each byte is tested at once
+         * using the 'has between' and 'has zero' bit tricks.
+         * @param word 8 bytes from the file
+         * @return true if any of the bytes is a digit or a newline
+         */
+        private static boolean hasDigitOrNewline(long word) {
+            long low = word & (ONES * 127);
+            long digit = (ONES * (127 + ':') - low) & ~word & (low + ONES * (127 - '/')) & HIGHS;
+            long newline = word ^ NEWLINES;
+            long zero = (newline - ONES) & ~newline & HIGHS;
+            return (digit | zero) != 0;
+        }
+
+        /**
+         * Process a single byte
+         * @param buffer bytes from the file
+         * @param idx index of the byte in the buffer
+         */
+        private void accept(ByteBuffer buffer, int idx) {
+            byte b = buffer.get(idx);
+            if( b >= '0' && b <= '9' ) {
+                if( first < 0 ) first = b - '0';
+                last = b - '0';
+            } else if( b == '\n' ) {
+                finishLine();
+                endLine(buffer, lineStart, idx);
+                lineStart = idx + 1;
+            }
+        }
+
+        /**
+         * Called for each newline. Only the part of a line in the current buffer is given.
+         * @param buffer bytes from the file
+         * @param from index of the first byte of the line
+         * @param to index of the newline
+         */
+        protected void endLine(ByteBuffer buffer, int from, int to) {
+        }
+
+        private void finishLine() {
+            if( first >= 0 ) sum += first * 10 + last;
+            first = -1;
+            last = -1;
+        }
+
+        /**
+         * Process the bytes in a buffer
+         * @param buffer bytes from the file
+         * @param wordAtATime if true, skip 8 bytes at a time when none are digits or newlines. If
+         *                    false, test every byte.
+         */
+        public void scan(ByteBuffer buffer, boolean wordAtATime) {
+            int idx = buffer.position();
+            int limit = buffer.limit();
+            lineStart = idx;
+            if( wordAtATime ) {
+                for( ; idx + Long.BYTES <= limit; idx += Long.BYTES ) {
+                    if( !hasDigitOrNewline(buffer.getLong(idx)) ) continue;
+                    for( int b = 0; b < Long.BYTES; b++ ) {
+                        accept(buffer, idx + b);
+                    }
                 }
             }
-            if( (idx = lcase.lastIndexOf(key)) > -1) {
-                if( idx > lastIdx) {
-                    lastIdx = idx;
-                    last = digits.get(key);
+            for( ; idx < limit; idx++ ) {
+                accept(buffer, idx);
+            }
+        }
+
+        /**
+         * Finish the last line and get the sum
+         * @return sum of the calibration values
+         */
+        public long finish() {
+            finishLine();
+            return sum;
+        }
+    }
+
+    /**
+     * Sums the calibration values for both parts in a single pass over a buffer of whole lines.
+     * The part 1 digits are picked up by the DigitScanner and each line is searched forwards and
+     * backwards for part 2 when its newline is reached, so the searches stop at the first match.
+     */
+    private class CalibrationScanner extends DigitScanner {
+        private final Automaton forward;
+        private final Automaton backward;
+        private long words = 0;
+
+        /**
+         * @param forward automaton over the digits and words
+         * @param backward reversed automaton over the digits and words
+         */
+        public CalibrationScanner(Automaton forward, Automaton backward) {
+            this.forward = forward;
+            this.backward = backward;
+        }
+
+        @Override
+        protected void endLine(ByteBuffer buffer, int from, int to) {
+            words += firstAndLast(buffer, from, to, forward, backward);
+        }
+
+        /**
+         * Scan a buffer holding whole lines
+         * @param buffer bytes from the file
+         * @return {part 1 sum, part 2 sum}
+         */
+        public long[] sum(ByteBuffer buffer) {
+            scan(buffer, true);
+            // The last line may not end with a newline
+            endLine(buffer, lineStart, buffer.limit());
+            return new long[] { finish(), words };
+        }
+    }
+
+    /**
+     * Sum the part 1 calibration values of a file without reading it into Strings. The file is
+     * memory mapped a window at a time so files bigger than 2GB can be handled.
+     * @param filename name of file
+     * @param wordAtATime if true, test 8 bytes at a time, if false, test a byte at a time
+     * @return sum of the calibration values
+     */
+    long sumDigitsMapped(String filename, boolean wordAtATime) {
+        final long window = 1L << 30;
+        DigitScanner scanner = new DigitScanner();
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for( long position = 0; position < size; position += window ) {
+                scanner.scan(channel.map(FileChannel.MapMode.READ_ONLY, position, min(window, size - position)), wordAtATime);
+            }
+        }
+        catch( IOException ioe ) {
+            ioe.printStackTrace();
+        }
+        return scanner.finish();
+    }
+
+    /**
+     * Fork join task that sums the calibration values of a range of chunks. A task with more than
+     * one chunk splits itself in half. A chunk only holds whole lines, so both parts are summed
+     * by a CalibrationScanner in one pass over the chunk.
+     */
+    private class CalibrationTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final int from;
+        private final int to;
+        private final Automaton forward;
+        private final Automaton backward;
+
+        /**
+         * @param channel the file
+         * @param boundaries file positions of the chunk starts, plus the file size
+         * @param from first chunk
+         * @param to chunk after the last chunk
+         * @param forward automaton over the digits and words
+         * @param backward reversed automaton over the digits and words
+         */
+        public CalibrationTask(FileChannel channel, long[] boundaries, int from, int to,
+                               Automaton forward, Automaton backward) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+            this.forward = forward;
+            this.backward = backward;
+        }
+
+        @Override
+        protected long[] compute() {
+            if( to - from > 1 ) {
+                int mid = (from + to) / 2;
+                CalibrationTask left = new CalibrationTask(channel, boundaries, from, mid, forward, backward);
+                left.fork();
+                long[] right = new CalibrationTask(channel, boundaries, mid, to, forward, backward).compute();
+                long[] sums = left.join();
+                return new long[] { sums[0] + right[0], sums[1] + right[1] };
+            }
+            ByteBuffer buffer;
+            try {
+                long start = boundaries[from];
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, boundaries[to] - start);
+            }
+            catch( IOException ioe ) {
+                throw new UncheckedIOException(ioe);
+            }
+            return new CalibrationScanner(forward, backward).sum(buffer);
+        }
+    }
+
+    /**
+     * Split a file into chunks of about chunkSize bytes. Each chunk is moved on to start at the
+     * beginning of a line so no line is split between chunks.
+     * @param channel the file
+     * @param chunkSize target chunk size in bytes
+     * @return file positions of the chunk starts, plus the file size
+     * @throws IOException if the file can't be read
+     */
+    private long[] findChunks(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        LongStream.Builder boundaries = LongStream.builder();
+        boundaries.add(0);
+        ByteBuffer probe = ByteBuffer.allocate(256);
+        long position = chunkSize;
+        while( position < size ) {
+            // Move on to the byte after the next newline
+            boolean found = false;
+            while( !found && position < size ) {
+                probe.clear();
+                int read = channel.read(probe, position - 1);
+                if( read <= 0 ) break;
+                for( int idx = 0; idx < read; idx++ ) {
+                    if( probe.get(idx) == '\n' ) {
+                        position += idx;
+                        found = true;
+                        break;
+                    }
                 }
+                if( !found ) position += read;
             }
+            if( !found || position >= size ) break;
+            boundaries.add(position);
+            position += chunkSize;
         }
-        return first * 10 + last;
+        boundaries.add(size);
+        return boundaries.build().toArray();
     }
 
-    public void run() {
-        Map<String, Integer> digits = Stream.of(new Object[][] {
-                {"0", 0}, {"1", 1}, {"2", 2}, {"3", 3}, {"4", 4},
-                {"5", 5}, {"6", 6}, {"7", 7}, {"8", 8}, {"9", 9}
-        }).collect(Collectors.toMap(data -> (String) data[0], data -> (Integer) data[1]));
+    /**
+     * Sum the calibration values for both parts in parallel. The file is split into chunks on line
+     * boundaries and each chunk is memory mapped and scanned by a fork join task.
+     * @param filename name of file
+     * @param words map of digits and digit words and their values
+     * @param chunkSize target chunk size in bytes
+     * @return {part 1 sum, part 2 sum}
+     */
+    long[] sumParallel(String filename, Map<String, Integer> words, long chunkSize) {
+        Automaton forward = new Automaton(words, false);
+        Automaton backward = new Automaton(words, true);
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long[] boundaries = findChunks(channel, chunkSize);
+            return ForkJoinPool.commonPool().invoke(
+                    new CalibrationTask(channel, boundaries, 0, boundaries.length - 1, forward, backward));
+        }
+        catch( IOException ioe ) {
+            ioe.printStackTrace();
+        }
+        catch( UncheckedIOException uioe ) {
+            uioe.getCause().printStackTrace();
+        }
+        return new long[] { 0, 0 };
+    }
 
+    public void run() {
         Map<String, Integer> wordsAndDigits = Stream.of(new Object[][] {
                 {"zero", 0},  {"0", 0},
                 {"one", 1},   {"1", 1},
@@ -62,10 +435,8 @@ public class Day1 implements Day {
                 {"nine", 9},  {"9", 9}
         }).collect(Collectors.toMap(data -> (String) data[0], data -> (Integer) data[1]));
 
-        List<String> fileContent = FileLoader.readFile("input/day1.txt");
-        int sum = fileContent.stream().mapToInt(line -> firstAndLast(line,digits)).sum();
-        int sum2 = fileContent.stream().mapToInt(line -> firstAndLast(line, wordsAndDigits)).sum();
-        System.out.println("Digits Sum : " + sum);
-        System.out.println("Text and Digits sum : " + sum2);
+        long[] sums = sumParallel("input/day1.txt", wordsAndDigits, 8L << 20);
+        System.out.println("Digits Sum : " + sums[0]);
+        System.out.println("Text and Digits sum : " + sums[1]);
     }
 }
@@ -5,145 +5,37 @@ import util.FileLoader;
 
 import java.util.*;
 
-/**
- * Define a pipe with two entrances (& exits) represented by the map characters |-F7JL. Directions can be N, S, E or W
- * Each pipe has two directions. | -> N,S  F -> E,S  L -> E,N, etc
- * @param first a pipe direction of entry or exit
- * @param second the other direction of entry or exit
- */
-record Pipe( char first, char second ) {
-
-    /**
-     * Given a pipe entry direction, get the pipe direction of the exit ooint. An entry direction of East means the
-     * pipe is being entered at the East so the direction of travel is actually West.
-     * @param entryPoint direction of pipe entry point
-     * @return direction of pipe exit point
-     */
-    public char getExitDirection(char entryPoint) {
-        return (entryPoint == first) ? second : first;
-    }
-
-    /**
-     * Checks if a pipe has an exit point in a given pipe direction
-     * @param direction direction of exit
-     * @return true if pipe has an exit in the given pipe direction
-     */
-    public boolean hasExitDirection(char direction) {
-        return ((direction == first) || (direction == second));
-    }
-}
-
 /**
  * Define a polygon vertex
  */
 record Vertex(int row, int col) {};
 
 /**
- * Define a Tile. A Tile represents a row column and pipe symbol
- */
-class Tile {
-    private final char symbol;
-    private final int row;
-    private final int col;
-    private int count;
-
-    public Tile(int row, int col, char symbol) {
-        this.row = row;
-        this.col = col;
-        this.symbol = symbol;
-        this.count = 0;
-    }
-
-    /**
-     * Check if this tile is inside the route polygon
-     * @param polygon each coordinate that is part of the route from Start back to Start.
-     * @return true if this tile is inside the polygon
-     */
-    public boolean isInside(List<Vertex> polygon) {
-        // draw a line in one direction and count the number of times it crosses the polygon.
-        // if the number of crossings is odd, the point is inside the polygon.
-        // Uses the even-odd rule algorithm or crossing number algorithm
-        boolean inside = false;
-        int head = 0;
-        int tail = polygon.size() - 1;
-        while( head < polygon.size() ) {
-            Vertex curr = polygon.get(head);
-            Vertex prev = polygon.get(tail);
-            if( ((curr.row() > row) != (prev.row() > row)) &&
-                    (col < (prev.col() - curr.col()) * (row - curr.row()) / (prev.row() - curr.row()) + curr.col())){
-                inside = !inside;
-            }
-            tail = head++;
-        }
-        return inside;
-    }
-
-
-    /***********************************************************************************************************
-     * Getters and setters
-     **********************************************************************************************************/
-
-    public char getSymbol() {
-        return symbol;
-    }
-
-    public int getRow() {
-        return row;
-    }
-
-    public int getCol() {
-        return col;
-    }
-
-    public int getCount() {
-        return count;
-    }
-
-    public void setCount( int count ){
-        this.count = count;
-    }
-    public int incCount() {
-        this.count++;
-        return count;
-    }
-
-    // Code for testing equality
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Tile tile = (Tile) o;
-        return symbol == tile.symbol && row == tile.row && col == tile.col;
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(symbol, row, col);
-    }
-
-    @Override
-    public String toString() {
-        return "[ row:" + row + " col:" + col + " symbol:" + symbol + " count:" + count + "]";
-    }
-}
-
-/**
- * Manage a grid of tiles
+ * Manage a grid of tiles. Each tile is packed into a byte holding one bit for each pipe exit so the
+ * map characters |-F7JL become N+S, E+W, S+E, W+S, N+E and W+N. The loop distance of each tile is
+ * kept in a parallel int array. Tiles are addressed by index, row * cols + col, so moving to a
+ * neighbour is just index arithmetic.
  */
 class TileGrid {
-    private final Tile[][] tiles;
+    public static final byte NORTH = 1;
+    public static final byte EAST = 2;
+    public static final byte SOUTH = 4;
+    public static final byte WEST = 8;
+    public static final byte[] DIRECTIONS = { NORTH, EAST, SOUTH, WEST };
+
+    private final byte[] tiles;
+    private final int[] distances;
     private final int rows;
     private final int cols;
+    private int start;
 
     public TileGrid(int rows, int columns ){
         this.rows = rows;
         this.cols = columns;
+        this.start = -1;
 
-        tiles = new Tile[rows][];
-        for(int row=0; row<rows; row++) {
-            tiles[row] = new Tile[columns];
-        }
+        tiles = new byte[rows * columns];
+        distances = new int[rows * columns];
     }
 
     /**
@@ -154,56 +46,101 @@ class TileGrid {
         int row = 0;
         for( String line : fileContent ){
             if(line.trim().isEmpty()) continue;
-            int col = 0;
-            for(char c : line.toCharArray()) {
-                setTile(row, col, new Tile( row, col, c));
-                col++;
+            for(int col = 0; col < line.length() && col < cols; col++) {
+                char c = line.charAt(col);
+                if( c == 'S' ) start = getIndex(row, col);
+                tiles[getIndex(row, col)] = getExits(c);
             }
             row++;
         }
     }
 
     /**
-     * Find the start tile
-     * @return the start Tile
+     * Convert a map character into its pipe exits
+     * @param symbol map character
+     * @return bit mask of pipe exits, 0 if it isn't a pipe
+     */
+    public static byte getExits(char symbol) {
+        return switch (symbol) {
+            case '|' -> NORTH | SOUTH;
+            case '-' -> EAST | WEST;
+            case '7' -> WEST | SOUTH;
+            case 'L' -> NORTH | EAST;
+            case 'F' -> SOUTH | EAST;
+            case 'J' -> WEST | NORTH;
+            default -> 0;
+        };
+    }
+
+    /**
+     * reverse a given direction
+     * @param direction the direction
+     * @return the opposite direction
      */
-    public Tile findStart() {
-        // Stream[Stream<Tile[]> -> flatten to Stream<Tile> -> filter start tile -> find it
-        return Arrays.stream(tiles)
-            .flatMap(Arrays::stream)
-                .filter(tile -> tile.getSymbol() == 'S')
-                .findAny().orElse(null);
+    public static byte getReverseDirection(byte direction) {
+        return (byte) (((direction << 2) | (direction >> 2)) & 0x0f);
     }
 
     /**
-     * Get a neighbouring cell from a given location and direction
-     * @param row grid row
-     * @param col grid column
+     * Get a neighbouring tile from a given tile and direction
+     * @param index tile index
      * @param direction direction of movement
-     * @return the Tile in that direction or null
+     * @return the index of the tile in that direction or -1 if it is off the grid
      */
-    public Tile getNeighbour(int row, int col, char direction) {
-        Tile neighbour = null;
-        switch (direction) {
-            case 'N' ->  neighbour = getTile(row-1, col);
-            case 'E' ->  neighbour = getTile(row, col+1);
-            case 'S' ->  neighbour = getTile(row+1, col);
-            case 'W' ->  neighbour = getTile(row, col-1);
-            default ->  neighbour = null;
+    public int getNeighbour(int index, byte direction) {
+        return switch (direction) {
+            case NORTH -> index >= cols ? index - cols : -1;
+            case EAST -> (index % cols) + 1 < cols ? index + 1 : -1;
+            case SOUTH -> index + cols < tiles.length ? index + cols : -1;
+            case WEST -> (index % cols) > 0 ? index - 1 : -1;
+            default -> -1;
         };
-        return neighbour;
+    }
+
+    /**
+     * Checks if a tile has an exit in a given direction
+     * @param index tile index
+     * @param direction direction of exit
+     * @return true if the tile has an exit in the given direction
+     */
+    public boolean hasExit(int index, byte direction) {
+        return (tiles[index] & direction) != 0;
     }
 
     /************************************************************************************************************
      * Getters and setters
      ***********************************************************************************************************/
 
-    public void setTile(int row, int col, Tile tile ){
-        tiles[row][col] = tile;
+    public int getIndex(int row, int col) {
+        return row * cols + col;
+    }
+
+    public int getRow(int index) {
+        return index / cols;
     }
 
-    public Tile getTile(int row, int col) {
-        return tiles[row][col];
+    public int getCol(int index) {
+        return index % cols;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public byte getTile(int index) {
+        return tiles[index];
+    }
+
+    public void setTile(int index, byte exits) {
+        tiles[index] = exits;
+    }
+
+    public int getDistance(int index) {
+        return distances[index];
+    }
+
+    public void setDistance(int index, int distance) {
+        distances[index] = distance;
     }
 
     public int getRows() {
@@ -218,101 +155,126 @@ class TileGrid {
 public class Day10 implements Day {
     private TileGrid tileGrid;
     private final List<Vertex> polygon;
-    private final Map<Character, Pipe> pipes;
+    private int loopLength;
 
     public Day10() {
         polygon = new ArrayList<>();
+    }
 
-        pipes = new HashMap<>();
-        pipes.put('|', new Pipe('N','S'));
-        pipes.put('-', new Pipe('E','W'));
-        pipes.put('7', new Pipe('W','S'));
-        pipes.put('L', new Pipe('N','E'));
-        pipes.put('F', new Pipe('S','E'));
-        pipes.put('J', new Pipe('W','N'));
+    /**
+     * Walk the pipes from the start tile without marking anything, to see if they lead back to it
+     * @param start the start tile index
+     * @param direction direction to leave the start tile
+     * @return the direction of travel when the start tile is reached again or 0 if the pipes
+     * lead somewhere else
+     */
+    private byte findLoopEnd(int start, byte direction) {
+        int tile = start;
+        int maxSteps = tileGrid.getRows() * tileGrid.getCols();
+        for(int steps = 0; steps < maxSteps; steps++) {
+            byte entryDirection = TileGrid.getReverseDirection(direction);
+            tile = tileGrid.getNeighbour(tile, direction);
+            if(tile < 0) return 0;
+            if(tile == start) return direction;
+            if(!tileGrid.hasExit(tile, entryDirection)) return 0;
+            direction = (byte) (tileGrid.getTile(tile) & ~entryDirection);
+        }
+        return 0;
     }
 
     /**
-     * Follow the pipeline
-     * @param tile              current tile
-     * @param entryDirection    direction of travel
-     * @param start             the pipeline start
-     * @return half the number of pipe sections in the pipeline
+     * Work out which pipe is under the start tile. Each neighbouring pipe that connects to the start
+     * is followed until it either comes back to the start or reaches a dead end. The pipe joins the
+     * two ends of the first loop found.
+     * @param start the start tile index
+     * @return exits joining the start tile into a loop or 0 if there isn't a loop
      */
-    private int followPipe(Tile tile, char entryDirection, Tile start) {
-        int count = 0;
-        Tile next;
-        do {
-            if( tile == null || tile.getSymbol() == '.') break;
-            char exitDirection = pipes.get(tile.getSymbol()).getExitDirection(entryDirection);
-            next = tileGrid.getNeighbour(tile.getRow(), tile.getCol(), exitDirection);
-            if(next==null) break;
-            if(next == start) {
-                count = tile.incCount() / 2;
-                break;
-            }
-            next.setCount(tile.incCount());
-            entryDirection = getReverseDirection(exitDirection);
-            tile=next;
-            polygon.add(new Vertex(tile.getRow(),tile.getCol()));
-        } while(true);
-        return count;
+    private byte findStartExits(int start) {
+        for(byte exit : TileGrid.DIRECTIONS) {
+            int tile = tileGrid.getNeighbour(start, exit);
+            if(tile < 0 || !tileGrid.hasExit(tile, TileGrid.getReverseDirection(exit))) continue;
+            byte arrival = findLoopEnd(start, exit);
+            if(arrival != 0) return (byte) (exit | TileGrid.getReverseDirection(arrival));
+        }
+        return 0;
     }
 
     /**
-     * reverse a given direction
-     * @param direction the direction
-     * @return the opposite of the entry direction
+     * Follow the pipeline from the start tile all the way round and back to the start. Each tile on
+     * the way is given its distance from the start. Only the corner pipes (F, 7, L and J) are turning
+     * points so only they are added to the polygon.
+     * @param start the pipeline start, which must already have its pipe exits
+     * @return the number of pipe sections in the pipeline or 0 if it isn't a loop
      */
-    private char getReverseDirection(char direction) {
-        return switch (direction) {
-            case 'N' -> 'S';
-            case 'E' -> 'W';
-            case 'S' -> 'N';
-            case 'W' -> 'E';
-            default -> 0;
-        };
+    private int followPipe(int start) {
+        int tile = start;
+        byte direction = (byte) Integer.lowestOneBit(tileGrid.getTile(start));
+        int length = 0;
+        do {
+            byte exits = tileGrid.getTile(tile);
+            if(exits != (TileGrid.NORTH | TileGrid.SOUTH) && exits != (TileGrid.EAST | TileGrid.WEST)) {
+                polygon.add(new Vertex(tileGrid.getRow(tile), tileGrid.getCol(tile)));
+            }
+            byte entryDirection = TileGrid.getReverseDirection(direction);
+            tile = tileGrid.getNeighbour(tile, direction);
+            length++;
+            if(tile < 0 || !tileGrid.hasExit(tile, entryDirection)) return 0;
+            if(tile != start) tileGrid.setDistance(tile, length);
+            direction = (byte) (tileGrid.getTile(tile) & ~entryDirection);
+        } while(tile != start);
+        return length;
     }
 
     private int part1() {
-        Tile start = tileGrid.findStart();
-        polygon.add(new Vertex(start.getRow(),start.getCol()));
-
-        // Find a valid direction to move
-        char [] exits = {'N','E','S','W'};
-        for(char exit : exits) {
-            Tile tile = tileGrid.getNeighbour(start.getRow(), start.getCol(), exit);
-            if(tile==null || tile.getSymbol()=='.' || tile.getCount() != 0) continue;
-            char reverse = getReverseDirection(exit);
-            if(pipes.get(tile.getSymbol()).hasExitDirection(reverse)) {
-                tile.incCount();
-                polygon.add(new Vertex(tile.getRow(),tile.getCol()));
-                return followPipe(tile, reverse, start);
-            }
-        }
-        return 0;
+        int start = tileGrid.getStart();
+        byte exits = findStartExits(start);
+        if(exits == 0) throw new IllegalStateException("The start tile isn't on a loop");
+        tileGrid.setTile(start, exits);
+        loopLength = followPipe(start);
+        if(loopLength == 0) throw new IllegalStateException("The loop from the start tile isn't closed");
+        return loopLength / 2;
     }
 
+    /**
+     * Count the tiles enclosed by the loop with a single scan of the grid. Scanning a row from the
+     * West, every loop tile with a North exit crosses the loop boundary, so a tile that isn't part of
+     * the loop is inside if an odd number of crossings have been passed.
+     * @return number of enclosed tiles
+     */
     private int part2() {
-        List<Tile> toTest = new ArrayList<>();
-
-        Tile start = tileGrid.findStart();
-        for(int row = 0; row< tileGrid.getRows(); ++row) {
-            for(int col = 0; col< tileGrid.getCols(); ++col) {
-                Tile tile = tileGrid.getTile(col,row);
-                if(tile.getCount()==0 && !tile.equals(start)) {
-                    toTest.add(tile);
+        int start = tileGrid.getStart();
+
+        int count = 0;
+        int index = 0;
+        for(int row = 0; row < tileGrid.getRows(); ++row) {
+            boolean inside = false;
+            for(int col = 0; col < tileGrid.getCols(); ++col, ++index) {
+                if(index == start || tileGrid.getDistance(index) != 0) {
+                    if(tileGrid.hasExit(index, TileGrid.NORTH)) inside = !inside;
+                } else if(inside) {
+                    count++;
                 }
             }
         }
+        return count;
+    }
 
-        int count=0;
-        for(Tile tile : toTest) {
-            if( tile.isInside(polygon)) {
-                count++;
-            }
+    /**
+     * Count the tiles enclosed by the loop using only the loop polygon. The shoelace formula gives
+     * the area of the polygon and Pick's theorem, A = i + b/2 - 1, turns the area and the number of
+     * boundary tiles into the number of interior tiles. The polygon only needs its corners.
+     * @param polygon corners of the traced loop, in order
+     * @param loopLength number of pipe sections in the loop
+     * @return number of enclosed tiles
+     */
+    private long part2ByArea(List<Vertex> polygon, int loopLength) {
+        long twiceArea = 0;
+        for(int idx = 0; idx < polygon.size(); idx++) {
+            Vertex curr = polygon.get(idx);
+            Vertex next = polygon.get((idx + 1) % polygon.size());
+            twiceArea += (long) curr.col() * next.row() - (long) next.col() * curr.row();
         }
-        return count;
+        return (Math.abs(twiceArea) - loopLength) / 2 + 1;
     }
 
     public void run() {
@@ -321,6 +283,12 @@ public class Day10 implements Day {
         tileGrid.createFromFile(fileContent);
 
         System.out.println( "Part 1: " + part1());
-        System.out.println( "Part 2: " + part2());
+        int enclosed = part2();
+        // Cross check the scanline count against the area of the loop polygon
+        long byArea = part2ByArea(polygon, loopLength);
+        if( enclosed != byArea ) {
+            throw new IllegalStateException("Scanline count " + enclosed + " doesn't match area count " + byArea);
+        }
+        System.out.println( "Part 2: " + enclosed);
     }
 }
@@ -4,66 +4,93 @@ import util.Day;
 import util.FileLoader;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 record Galaxy(long row, long col) {};
 
 class GalaxyGrid {
-    private List<Galaxy> galaxies;
+    private final List<Galaxy> galaxies;
+    private final long[] emptyRowsBefore;
+    private final long[] emptyColsBefore;
+    // Sum of all distances before expansion
+    private final long distance;
+    // Number of empty rows and columns crossed by all the paths
+    private final long crossings;
 
     /**
-     * Build the galaxy grid
+     * Build the galaxy grid. The distances are linear in the expansion multiplier so the unexpanded
+     * distance and the number of empty rows and columns crossed are worked out here, once.
      * @param fileContent the grid as a file
-     * @param multiplier multiplier for each empty row or column
      */
-    public GalaxyGrid(List<String> fileContent, int multiplier){
-        List<Integer> emptyColumns = new ArrayList<>();
-        List<Integer> emptyRows = new ArrayList<>();
-
-        // scan the input looking for empty columns
-        for( int col = 0; col < fileContent.get(0).length(); col++ ){
-            boolean isEmpty = true;
-            for( String line : fileContent ){
-                if( line.charAt(col) == '#'){
-                    isEmpty = false;
-                    break;
+    public GalaxyGrid(List<String> fileContent){
+        int rows = fileContent.size();
+        int cols = fileContent.get(0).length();
+        boolean[] rowOccupied = new boolean[rows];
+        boolean[] colOccupied = new boolean[cols];
+
+        // one pass over the input to find which rows and columns have galaxies
+        for( int row = 0; row < rows; row++ ){
+            String line = fileContent.get(row);
+            for( int col = 0; col < min(cols, line.length()); col++ ){
+                if( line.charAt(col) == '#' ){
+                    rowOccupied[row] = true;
+                    colOccupied[col] = true;
                 }
             }
-            if( isEmpty ) emptyColumns.add(col);
         }
+        emptyRowsBefore = countEmptyBefore(rowOccupied);
+        emptyColsBefore = countEmptyBefore(colOccupied);
 
-        // scan for empty rows and create the galaxy list
+        // create the galaxy list from the rows that have galaxies
         galaxies = new ArrayList<>();
-        for( int row = 0; row < fileContent.size(); row++ ){
-            // If the row is empty register it
-            if(!fileContent.get(row).contains("#")) {
-                emptyRows.add(row);
-                continue;
-            }
-
-            long rc = 0;
-            for (int r : emptyRows) {
-                if (r < row) {
-                    rc += multiplier-1;
+        for( int row = 0; row < rows; row++ ){
+            if( !rowOccupied[row] ) continue;
+            String line = fileContent.get(row);
+            for( int col = 0; col < min(cols, line.length()); col++ ){
+                if( line.charAt(col) == '#' ){
+                    galaxies.add(new Galaxy(row, col));
                 }
             }
+        }
 
-            // The row contains galaxies so register them
-            char[] chars = fileContent.get(row).toCharArray();
-            for( int col = 0; col < chars.length; col++) {
-                if (chars[col] == '#') {
-                    long cc = 0;
-                    for (int c : emptyColumns) {
-                        if (c < col) {
-                            cc += multiplier-1;
-                        }
-                    }
-                    galaxies.add(new Galaxy(row + rc, col + cc));
-                }
-            }
+        long[] galaxyRows = galaxies.stream().mapToLong(Galaxy::row).toArray();
+        long[] galaxyCols = galaxies.stream().mapToLong(Galaxy::col).toArray();
+        long[] galaxyEmptyRows = galaxies.stream().mapToLong(galaxy -> emptyRowsBefore[(int) galaxy.row()]).toArray();
+        long[] galaxyEmptyCols = galaxies.stream().mapToLong(galaxy -> emptyColsBefore[(int) galaxy.col()]).toArray();
+        distance = sumAxisDistances(galaxyRows) + sumAxisDistances(galaxyCols);
+        crossings = sumAxisDistances(galaxyEmptyRows) + sumAxisDistances(galaxyEmptyCols);
+    }
+
+    /**
+     * Count the empty rows (or columns) before each row
+     * @param occupied true for each row that has a galaxy in it
+     * @return number of empty rows before each row
+     */
+    private static long[] countEmptyBefore(boolean[] occupied) {
+        long[] counts = new long[occupied.length];
+        long count = 0;
+        for( int idx = 0; idx < occupied.length; idx++ ){
+            counts[idx] = count;
+            if( !occupied[idx] ) count++;
         }
+        return counts;
+    }
+
+    /**
+     * Move a galaxy to where it is after expansion
+     * @param galaxy unexpanded galaxy
+     * @param multiplier multiplier for each empty row or column
+     * @return expanded galaxy
+     */
+    private Galaxy expand(Galaxy galaxy, long multiplier) {
+        return new Galaxy(
+                galaxy.row() + (multiplier - 1) * emptyRowsBefore[(int) galaxy.row()],
+                galaxy.col() + (multiplier - 1) * emptyColsBefore[(int) galaxy.col()]);
     }
 
     /**
@@ -77,15 +104,54 @@ class GalaxyGrid {
     }
 
     /**
-     * Sum the distances between every galaxy and every other galaxy
+     * Sum the distances between every galaxy and every other galaxy. Every empty row or column
+     * crossed adds multiplier - 1 to a distance.
+     * @param multiplier multiplier for each empty row or column
+     * @return sum of all distances
+     */
+    public long sumDistances(long multiplier) {
+        return distance + (multiplier - 1) * crossings;
+    }
+
+    /**
+     * Sum the distances between every galaxy and every other galaxy for several multipliers
+     * @param multipliers multipliers for each empty row or column
+     * @return sum of all distances for each multiplier
+     */
+    public long[] sumDistances(long[] multipliers) {
+        return Arrays.stream(multipliers).map(this::sumDistances).toArray();
+    }
+
+    /**
+     * Sum the distances between every pair of values on one axis. Once the values are sorted, each
+     * value is at least as big as all the values before it, so its distance to all of them is
+     * value * (number before it) - (sum of the values before it).
+     * @param values coordinates on one axis. The array is sorted in place.
+     * @return sum of the distances between every pair of values
+     */
+    private static long sumAxisDistances(long[] values) {
+        Arrays.sort(values);
+        long distance = 0;
+        long prefixSum = 0;
+        for( int idx = 0; idx < values.length; idx++ ){
+            distance += values[idx] * idx - prefixSum;
+            prefixSum += values[idx];
+        }
+        return distance;
+    }
+
+    /**
+     * Sum the distances between every galaxy and every other galaxy by visiting every pair. This
+     * is quadratic so it is only kept to verify sumDistances.
+     * @param multiplier multiplier for each empty row or column
      * @return sum of all distances
      */
-    public long visitAllGalaxies() {
+    public long visitAllGalaxies(long multiplier) {
         long distance = 0;
         for( int galaxy = 0; galaxy < galaxies.size()-1; galaxy++ ){
-            Galaxy from = galaxies.get(galaxy);
+            Galaxy from = expand(galaxies.get(galaxy), multiplier);
             for( int visit = galaxy+1; visit < galaxies.size(); visit++ ){
-                Galaxy to = galaxies.get(visit);
+                Galaxy to = expand(galaxies.get(visit), multiplier);
                 distance += manhattenDistance( from, to );
             }
         }
@@ -98,21 +164,103 @@ class GalaxyGrid {
     }
 }
 
-public class Day11 implements Day {
-    public long part1(List<String> fileContent){
-        GalaxyGrid galaxyGrid = new GalaxyGrid(fileContent, 2);
-        return galaxyGrid.visitAllGalaxies();
+/**
+ * Galaxy counts for each row and column of the grid. This is all that is needed to sum the distances,
+ * so a grid can be streamed from a file a row at a time without holding the grid or any galaxies
+ * in memory.
+ */
+class GalaxyHistogram {
+    private long[] rowCounts = new long[16];
+    private long[] colCounts = new long[16];
+    private int rows = 0;
+    private int cols = 0;
+
+    /**
+     * Build the histogram from a grid file a row at a time
+     * @param filename name of the grid file
+     * @return histogram of the grid
+     */
+    public static GalaxyHistogram fromFile(String filename) {
+        GalaxyHistogram histogram = new GalaxyHistogram();
+        FileLoader.forEachLine(filename, histogram::addRow);
+        return histogram;
+    }
+
+    /**
+     * Add the next row of the grid
+     * @param line grid row
+     */
+    public void addRow(String line) {
+        if( rows == rowCounts.length ) rowCounts = Arrays.copyOf(rowCounts, rows * 2);
+        if( line.length() > colCounts.length ) colCounts = Arrays.copyOf(colCounts, max(line.length(), cols * 2));
+        cols = max(cols, line.length());
+        for( int col = 0; col < line.length(); col++ ){
+            if( line.charAt(col) == '#' ){
+                rowCounts[rows]++;
+                colCounts[col]++;
+            }
+        }
+        rows++;
+    }
+
+    /**
+     * Sum the distances between every galaxy and every other galaxy
+     * @param multiplier multiplier for each empty row or column
+     * @return sum of all distances
+     */
+    public long sumDistances(long multiplier) {
+        return sumDistances(new long[] { multiplier })[0];
+    }
+
+    /**
+     * Sum the distances between every galaxy and every other galaxy for several multipliers
+     * @param multipliers multipliers for each empty row or column
+     * @return sum of all distances for each multiplier
+     */
+    public long[] sumDistances(long[] multipliers) {
+        long[] rowSums = sumAxisDistances(rowCounts, rows);
+        long[] colSums = sumAxisDistances(colCounts, cols);
+        return Arrays.stream(multipliers)
+                .map(multiplier -> rowSums[0] + colSums[0] + (multiplier - 1) * (rowSums[1] + colSums[1]))
+                .toArray();
     }
 
-    public long part2(List<String> fileContent) {
-        GalaxyGrid galaxyGrid = new GalaxyGrid(fileContent, 1000000);
-        return galaxyGrid.visitAllGalaxies();
+    /**
+     * Sum the distances between every pair of galaxies on one axis from the galaxy count at each
+     * position. Each galaxy's distance to all the galaxies before it is
+     * position * (number before it) - (sum of their positions), and the same goes for the number of
+     * empty positions crossed.
+     * @param counts number of galaxies at each position
+     * @param length number of positions
+     * @return {unexpanded distance, empty positions crossed}
+     */
+    private static long[] sumAxisDistances(long[] counts, int length) {
+        long distance = 0, crossings = 0;
+        long seen = 0, positionSum = 0, emptySum = 0;
+        long empty = 0;
+        for( int position = 0; position < length; position++ ){
+            long count = counts[position];
+            if( count == 0 ) {
+                empty++;
+                continue;
+            }
+            distance += count * (position * seen - positionSum);
+            crossings += count * (empty * seen - emptySum);
+            seen += count;
+            positionSum += count * position;
+            emptySum += count * empty;
+        }
+        return new long[] { distance, crossings };
     }
+}
 
+public class Day11 implements Day {
     @Override
     public void run() {
         List<String> fileContent = FileLoader.readFile("input/day11.txt");
-        System.out.println("Part 1: " + part1(fileContent)) ;
-        System.out.println("Part 2: " + part2(fileContent)) ;
+        GalaxyGrid galaxyGrid = new GalaxyGrid(fileContent);
+        long[] distances = galaxyGrid.sumDistances(new long[] { 2, 1000000 });
+        System.out.println("Part 1: " + distances[0]) ;
+        System.out.println("Part 2: " + distances[1]) ;
     }
 }
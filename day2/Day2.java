@@ -3,17 +3,16 @@ package day2;
 import util.Day;
 import util.FileLoader;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static java.lang.Math.max;
 
 public class Day2 implements Day {
 
     /**
-     * Record to hold the data of a single game part
+     * Record to hold the most cubes of each colour shown in any one part of a game
      * @param id Game ID
      * @param red number of red cubes
      * @param green number of green cubes
@@ -22,128 +21,167 @@ public class Day2 implements Day {
     private record Game(int id, int red, int green, int blue){}
 
     /**
-     * Take an array of game definitions and sum the id's of the valid games. For a game to be
-     * valid, it's cube usage cannot exceed the maximum number provided in any one part.
-     * @param gameDefs String array holding the game definitions, one per line
-     * @param maxRed maximum number of red cubes that can be used
-     * @param maxGreen maximum number of green cubes that can be used
-     * @param maxBlue maximum number of blue cubes that can be used
-     * @return the sum of the ID's of the valid games given a maximum for each cube colour.
+     * Parse a game definition in a single pass with a character cursor. Game parts are separated
+     * by semicolons and colour counts by commas, but only the largest count of each colour
+     * matters so the separators are just skipped.
+     * @param gameDef game definition, 'Game <id>: <count> <colour>, ...; ...'
+     * @return record of the game with the most cubes of each colour that were shown
      */
-    private int sumValidGameIds(List<String> gameDefs, int maxRed, int maxGreen, int maxBlue) {
-        int sum = 0;
-        for( String gameDef : gameDefs ){
-            // each definition starts with 'Game <id>:'
-            String[] gameDesc = gameDef.split(":");
-            // gameDesc[0] is the game ID, [1] is the game definition.
-            int id = extractInteger(gameDesc[0].trim());
-            ArrayList<Game> games = processGameDefinition(id, gameDesc[1].trim());
-
-            // Ignore game if any counts exceed the max allowed
-            boolean valid = true;
-            for( Game check : games ){
-                if( check.red() > maxRed || check.green() > maxGreen || check.blue() > maxBlue ) {
-                    valid = false;
-                    break;
-                }
+    private Game parseGame(String gameDef) {
+        int idx = 0;
+        int length = gameDef.length();
+
+        // The first number is the game ID
+        while( idx < length && !Character.isDigit(gameDef.charAt(idx)) ) idx++;
+        int id = 0;
+        while( idx < length && Character.isDigit(gameDef.charAt(idx)) ) {
+            id = id * 10 + gameDef.charAt(idx++) - '0';
+        }
+
+        int red = 0, green = 0, blue = 0;
+        while( idx < length ) {
+            if( !Character.isDigit(gameDef.charAt(idx)) ) {
+                idx++;
+                continue;
+            }
+            int count = 0;
+            while( idx < length && Character.isDigit(gameDef.charAt(idx)) ) {
+                count = count * 10 + gameDef.charAt(idx++) - '0';
+            }
+            while( idx < length && gameDef.charAt(idx) == ' ' ) idx++;
+            if( idx >= length ) break;
+            // The first letter is enough to tell the colours apart
+            switch( Character.toLowerCase(gameDef.charAt(idx)) ) {
+                case 'r' -> red = max(red, count);
+                case 'g' -> green = max(green, count);
+                case 'b' -> blue = max(blue, count);
             }
-            if( valid ) sum += games.get(0).id();
+            while( idx < length && Character.isLetter(gameDef.charAt(idx)) ) idx++;
         }
-        return sum;
+        return new Game(id, red, green, blue);
     }
 
     /**
-     * Take an array of game definitions and sum the powers of each game. The power is determined
-     * by how many cubes of each colour will be required to make the game possible and multiplying
-     * the counts together.
-     * @param gameDefs String array holding the game definitions, one per line
-     * @return the sum of the powers for each game.
+     * Column store of the games. The most cubes of each colour shown in each game are parsed once
+     * and held in int arrays so any number of queries can be run against them.
      */
-    private int sumPowers(List<String> gameDefs ){
-        int sum = 0;
-
-        for( String gameDef : gameDefs ){
-            int minRed = 0, minGreen = 0, minBlue = 0;
-            // each definition starts with 'Game <id>:'
-            String[] gameDesc = gameDef.split(":");
-            // gameDesc[0] is the game ID, [1] is the game definition.
-            int id = extractInteger(gameDesc[0].trim());
-            ArrayList<Game> games = processGameDefinition(id, gameDesc[1].trim());
-            // Update the cubes required to play this game for each game part
-            for( Game game : games ){
-                minRed = max(minRed, game.red());
-                minGreen = max(minGreen, game.green());
-                minBlue = max(minBlue, game.blue());
+    private class GameStore {
+        private final int[] ids;
+        private final int[] reds;
+        private final int[] greens;
+        private final int[] blues;
+
+        /**
+         * Build the store
+         * @param gameDefs String array holding the game definitions, one per line
+         */
+        public GameStore(List<String> gameDefs) {
+            int size = gameDefs.size();
+            ids = new int[size];
+            reds = new int[size];
+            greens = new int[size];
+            blues = new int[size];
+            for( int idx = 0; idx < size; idx++ ) {
+                Game game = parseGame(gameDefs.get(idx));
+                ids[idx] = game.id();
+                reds[idx] = game.red();
+                greens[idx] = game.green();
+                blues[idx] = game.blue();
             }
-            // Calculate the power and sum add it to the sum.
-            sum += minBlue * minGreen * minRed;
         }
-        return sum;
-    }
 
-    /**
-     * Take the definition for a game and build the record for each game part.
-     * Game parts are separated by semicolons.
-     * @param id The game ID
-     * @param gameDef The string representation of a game
-     * @return List of records that represent the game.
-     */
-    private ArrayList<Game> processGameDefinition(int id, String gameDef ) {
-        ArrayList<Game> game = new ArrayList<>();
-        String[] parts = gameDef.split(";");
-        for( String part : parts ){
-            game.add(processGamePart(id, part.trim()));
+        /**
+         * Sum the powers of each game. The power is determined by how many cubes of each colour
+         * will be required to make the game possible and multiplying the counts together.
+         * @return the sum of the powers for each game.
+         */
+        public int sumPowers() {
+            int sum = 0;
+            for( int idx = 0; idx < ids.length; idx++ ) {
+                sum += reds[idx] * greens[idx] * blues[idx];
+            }
+            return sum;
         }
-        return game;
-    }
 
-    /**
-     * Create a game record by extracting the counts for red, green and blue for a game
-     * @param id game ID
-     * @param part String definition of the game part
-     * @return record of the game part
-     */
-    private Game processGamePart(int id, String part) {
-        // Colour counts are separated by commas
-        String[] colours = part.split(",");
-        int red = 0, green = 0, blue = 0;
-        for( String colour : colours ){
-            String colourName =
-                    colour.substring(colour.lastIndexOf(" ") + 1).toLowerCase();
-            switch( colourName ) {
-                case "red":
-                    red = extractInteger(colour);
-                    break;
-                case "green":
-                    green = extractInteger(colour);
-                    break;
-                case "blue":
-                    blue = extractInteger(colour);
-                    break;
+        /**
+         * Sum the id's of the valid games. For a game to be valid, it's cube usage cannot exceed
+         * the maximum number provided in any one part.
+         * @param maxRed maximum number of red cubes that can be used
+         * @param maxGreen maximum number of green cubes that can be used
+         * @param maxBlue maximum number of blue cubes that can be used
+         * @return the sum of the ID's of the valid games
+         */
+        public int sumValidGameIds(int maxRed, int maxGreen, int maxBlue) {
+            int sum = 0;
+            for( int idx = 0; idx < ids.length; idx++ ) {
+                if( reds[idx] <= maxRed && greens[idx] <= maxGreen && blues[idx] <= maxBlue ) sum += ids[idx];
             }
+            return sum;
         }
-        return new Game(id, red, green, blue);
-    }
 
-    /**
-     * Extract the first integer from a string and return its value.
-     * @param textID text which includes an integer number
-     * @return the value of the first integer number found or 0 if there wasn't one.
-     */
-    private int extractInteger(String textID) {
-        // Extract the game number
-        int id = 0;
-        Matcher matcher = Pattern.compile("\\d+").matcher(textID);
-        if(matcher.find()) {
-            id = Integer.parseInt(matcher.group());
+        /**
+         * Sum the id's of the valid games for a batch of limits. The games and the limits are both
+         * sorted by red. Sweeping through the limits, each game is added to a 2D Fenwick tree
+         * indexed by its green and blue counts once its red count is within the limit. The sum for
+         * a limit is then a prefix sum of the tree, so no query scans the games.
+         * @param limits {maxRed, maxGreen, maxBlue} for each query
+         * @return the sum of the ID's of the valid games for each query, in query order
+         */
+        public int[] sumValidGameIds(int[][] limits) {
+            int[] greenValues = Arrays.stream(greens).sorted().distinct().toArray();
+            int[] blueValues = Arrays.stream(blues).sorted().distinct().toArray();
+            int[][] tree = new int[greenValues.length + 1][blueValues.length + 1];
+
+            Integer[] gameOrder = new Integer[ids.length];
+            Arrays.setAll(gameOrder, idx -> idx);
+            Arrays.sort(gameOrder, Comparator.comparingInt(idx -> reds[idx]));
+            Integer[] queryOrder = new Integer[limits.length];
+            Arrays.setAll(queryOrder, idx -> idx);
+            Arrays.sort(queryOrder, Comparator.comparingInt(idx -> limits[idx][0]));
+
+            int[] sums = new int[limits.length];
+            int next = 0;
+            for( int query : queryOrder ) {
+                // Add every game that is within the red limit
+                while( next < gameOrder.length && reds[gameOrder[next]] <= limits[query][0] ) {
+                    int game = gameOrder[next++];
+                    int green = Arrays.binarySearch(greenValues, greens[game]) + 1;
+                    int blue = Arrays.binarySearch(blueValues, blues[game]) + 1;
+                    for( int g = green; g < tree.length; g += g & -g ) {
+                        for( int b = blue; b < tree[g].length; b += b & -b ) {
+                            tree[g][b] += ids[game];
+                        }
+                    }
+                }
+                // Sum the games within the green and blue limits
+                int sum = 0;
+                for( int g = countAtMost(greenValues, limits[query][1]); g > 0; g -= g & -g ) {
+                    for( int b = countAtMost(blueValues, limits[query][2]); b > 0; b -= b & -b ) {
+                        sum += tree[g][b];
+                    }
+                }
+                sums[query] = sum;
+            }
+            return sums;
+        }
+
+        /**
+         * Count how many values in a sorted array are no bigger than a limit
+         * @param values sorted distinct values
+         * @param limit the limit
+         * @return number of values <= limit
+         */
+        private int countAtMost(int[] values, int limit) {
+            int idx = Arrays.binarySearch(values, limit);
+            return idx >= 0 ? idx + 1 : -idx - 1;
         }
-        return id;
     }
 
     public void run() {
         List<String> gameDefs = FileLoader.readFile("input/day2.txt");
-        System.out.println("Part 1:" + sumValidGameIds(gameDefs, 12, 13, 14));
-        System.out.println("Part 2:" + sumPowers(gameDefs));
+        GameStore store = new GameStore(gameDefs);
+        System.out.println("Part 1:" + store.sumValidGameIds(12, 13, 14));
+        System.out.println("Part 2:" + store.sumPowers());
     }
 
 }
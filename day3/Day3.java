@@ -3,165 +3,429 @@ package day3;
 import util.Day;
 import util.FileLoader;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
-import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 public class Day3 implements Day {
+    // Count a gear whatever the number of numbers it touches
+    private static final int ANY_PARTS = 0;
 
     /**
-     * Define a symbol
-     * @param symbol the symbol character
-     * @param row grid row
-     * @param col grid column
+     * Map from the grid position of a '*' to the numbers touching it. Positions are packed into a
+     * long and held in an open addressing table along with a count of the numbers and their
+     * product, so nothing is allocated for each gear.
      */
-    private record Symbol( Character symbol, int row, int col ){
+    private static class GearMap {
+        private long[] keys;
+        private int[] counts;
+        private long[] products;
+        private int size;
+
+        public GearMap() {
+            keys = new long[64];
+            counts = new int[64];
+            products = new long[64];
+            size = 0;
+        }
+
+        /**
+         * Find the slot for a position
+         * @param key packed position
+         * @return index of the slot holding the position or the empty slot where it belongs
+         */
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int idx = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while( counts[idx] != 0 && keys[idx] != key ) {
+                idx = (idx + 1) & mask;
+            }
+            return idx;
+        }
+
+        /**
+         * Record a number touching the '*' at a position
+         * @param row grid row of the '*'
+         * @param col grid column of the '*'
+         * @param value the number
+         */
+        public void add(int row, int col, long value) {
+            long key = ((long) row << 32) | (col & 0xffffffffL);
+            int idx = slot(key);
+            if( counts[idx] == 0 ) {
+                keys[idx] = key;
+                products[idx] = 1;
+                size++;
+            }
+            counts[idx]++;
+            products[idx] *= value;
+            if( size * 2 > keys.length ) grow();
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            long[] oldProducts = products;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            products = new long[oldKeys.length * 2];
+            for( int idx = 0; idx < oldKeys.length; idx++ ) {
+                if( oldCounts[idx] == 0 ) continue;
+                int slot = slot(oldKeys[idx]);
+                keys[slot] = oldKeys[idx];
+                counts[slot] = oldCounts[idx];
+                products[slot] = oldProducts[idx];
+            }
+        }
 
         /**
-         * Checks if this symbol (which is always a single character) is adjacent to a block
-         * the block is always 1 character high but can be multiple characters in length.
-         * @param row grid row
-         * @param col grid column of block start
-         * @param length length of block
-         * @return true if this symbol is adjacent to the block, false if not
+         * Sum the gear values. A gear value is the product of all the numbers touching a '*'.
+         * @param parts only count a '*' touching exactly this many numbers. ANY_PARTS counts them all.
+         * @return sum of the gear values
          */
-        public boolean touches( int row, int col, int length ){
-            int end = col + length - 1;
-            // Get row distance
-            int rowDist = abs(this.row - row);
-            // get column distance
-            int colDist = 0;
-            if( this.col < col ) colDist = col - this.col;
-            if( this.col > end ) colDist = this.col - end;
-            // if both distances are 0 or 1 then we must be touching
-            return (( rowDist <= 1) && (colDist <= 1));
+        public long sumGears(int parts) {
+            long sum = 0;
+            for( int idx = 0; idx < keys.length; idx++ ) {
+                if( counts[idx] != 0 && (parts == ANY_PARTS || counts[idx] == parts) ) sum += products[idx];
+            }
+            return sum;
         }
     }
 
     /**
-     * record to store a gear part. The part consists of a symbol and the value of the number
-     * that the symbol first touched.
-     * @param symbol the symbol
-     * @param value the value of the number the symbol is touching
+     * Build a bit mask for each row with a bit set for every column that has a symbol in it.
+     * A symbol is anything that isn't a '.' or a digit.
+     * @param fileContent the grid representation
+     * @param width number of columns in the grid
+     * @return one mask per row, bit col % 64 of word col / 64 is set for a symbol
      */
-    private record GearPart( Symbol symbol, int value) {}
+    private long[][] symbolMasks(List<String> fileContent, int width) {
+        long[][] masks = new long[fileContent.size()][(width + 63) >>> 6];
+        for( int row = 0; row < fileContent.size(); row++ ){
+            String line = fileContent.get(row);
+            for( int col = 0; col < line.length(); col++ ){
+                char chr = line.charAt(col);
+                if( chr != '.' && !Character.isDigit(chr) ) masks[row][col >>> 6] |= 1L << col;
+            }
+        }
+        return masks;
+    }
 
     /**
-     * Extract all the symbols from a string grid representation. Each line is a grid row and
-     * each character is a grid column.
+     * Spread the symbol masks so each row has a bit set for every cell next to a symbol. Each row
+     * is ORed with the rows above and below and then shifted a column left and right.
+     * @param symbols symbol masks
+     * @return masks of the cells touching a symbol
+     */
+    private long[][] adjacencyMasks(long[][] symbols) {
+        long[][] masks = new long[symbols.length][];
+        for( int row = 0; row < symbols.length; row++ ){
+            int words = symbols[row].length;
+            long[] vertical = symbols[row].clone();
+            for( int word = 0; word < words; word++ ){
+                if( row > 0 ) vertical[word] |= symbols[row - 1][word];
+                if( row < symbols.length - 1 ) vertical[word] |= symbols[row + 1][word];
+            }
+            long[] mask = new long[words];
+            for( int word = 0; word < words; word++ ){
+                long left = (vertical[word] << 1) | (word > 0 ? vertical[word - 1] >>> 63 : 0);
+                long right = (vertical[word] >>> 1) | (word < words - 1 ? vertical[word + 1] << 63 : 0);
+                mask[word] = vertical[word] | left | right;
+            }
+            masks[row] = mask;
+        }
+        return masks;
+    }
+
+    /**
+     * Checks if any bit in a range of columns is set
+     * @param mask row mask
+     * @param from first column
+     * @param to last column
+     * @return true if any bit from column from to column to is set
+     */
+    private boolean anyBitSet(long[] mask, int from, int to) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        for( int word = first; word <= last; word++ ){
+            long bits = mask[word];
+            if( word == first ) bits &= -1L << from;
+            if( word == last ) bits &= -1L >>> (63 - (to & 63));
+            if( bits != 0 ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the numbers on a row and record each one against every '*' next to it. Only the cells
+     * around a number are checked.
      * @param fileContent the grid representation
-     * @return list of all symbols found in the grid with their coordinates
+     * @param row the grid row
+     * @param from first row whose '*' are recorded
+     * @param to row after the last row whose '*' are recorded
+     * @param gears map of '*' positions to the numbers touching them
      */
-    private List<Symbol> extractSymbols(List<String> fileContent) {
-        List<Symbol> symbols = new ArrayList<>();
-        int row = 0;
-        char chr;
-        for( String line : fileContent ){
-            char[] lineChars = line.toCharArray();
-            for( int col = 0; col < lineChars.length; col++ ){
-                chr = lineChars[col];
-                // A symbol is anything that isn't a '.' or a digit
-                if( chr != '.' && !Character.isDigit(chr)){
-                    symbols.add(new Symbol(chr, row, col));
+    private void collectGears(List<String> fileContent, int row, int from, int to, GearMap gears) {
+        String line = fileContent.get(row);
+        int col = 0;
+        while( col < line.length() ) {
+            if( !Character.isDigit(line.charAt(col)) ) {
+                col++;
+                continue;
+            }
+            int start = col;
+            long value = 0;
+            while( col < line.length() && Character.isDigit(line.charAt(col)) ) {
+                value = value * 10 + line.charAt(col++) - '0';
+            }
+            // col is now just past the end of the number
+            for( int r = max(from, row - 1); r <= min(to - 1, row + 1); r++ ) {
+                String neighbours = fileContent.get(r);
+                for( int c = max(0, start - 1); c <= min(col, neighbours.length() - 1); c++ ) {
+                    if( neighbours.charAt(c) == '*' ) gears.add(r, c, value);
                 }
             }
-            row++;
         }
-        return symbols;
     }
 
     /**
-     * Sum all the gears. A gear is defined as any two numbers that touch the same '*' symbol.
-     * These two numbers are multiplied together to form the gear value and these are all summed.
+     * Sum the gears in a band of rows. A gear is defined as a '*' symbol touched by a given number
+     * of numbers. These numbers are multiplied together to form the gear value and these are all
+     * summed. The numbers in the rows either side of the band are included so gears on its edges
+     * are complete.
      * @param fileContent the grid representation
-     * @param symbols list of all symbols found in the grid with their coordinates
-     * @return sum of all the gears
+     * @param from first row of the band
+     * @param to row after the last row of the band
+     * @param parts the number of numbers a gear touches, or ANY_PARTS
+     * @return sum of the gears in the band
      */
-    private int sumGears(List<String> fileContent, List<Symbol> symbols){
-        // A GearPart is the first half of a possible gear number pair
-        ArrayList<GearPart> gearParts = new ArrayList<>();
-        int sum = 0;
-        int row = 0;
-        String nbr;
-        int value;
-        Matcher matcher;
-
-        Pattern integerPattern = Pattern.compile("\\d+");
-        for( String line : fileContent ){
-            matcher = integerPattern.matcher(line);
-            // Find the next number on this line
-            while (matcher.find()) {
-                // Number as text
-                nbr = matcher.group();
-                value = Integer.parseInt(nbr);
-                int col = matcher.start();
-                int length = nbr.length();
-
-                // Is this number touched by any * symbols ?
-                for( Symbol symbol : symbols){
-                    if(( symbol.symbol() == '*') && ( symbol.touches(row, col, length))) {
-                        GearPart gearPart = null;
-                        // See if we have a record of this * touching another value
-                        for( GearPart part : gearParts ){
-                            if( part.symbol().equals(symbol) ){
-                                gearPart = part;
-                                break;
-                            }
-                        }
-                        if( gearPart == null ) {
-                            // This is the first number this * has touched so store it
-                            gearParts.add(new GearPart(symbol, value));
-                        } else {
-                            // This * is touching another number so remove it from the store, get
-                            // the gear value and add it to the sum
-                            gearParts.remove(gearPart);
-                            sum += value * gearPart.value();
-                        }
-                    }
+    private long sumGears(List<String> fileContent, int from, int to, int parts){
+        GearMap gears = new GearMap();
+        for( int row = max(0, from - 1); row <= min(fileContent.size() - 1, to); row++ ){
+            collectGears(fileContent, row, from, to, gears);
+        }
+        return gears.sumGears(parts);
+    }
+
+    /**
+     * Sum the numbers in a band of rows that are touched by a symbol. The masks are built for the
+     * band and the rows either side of it, then each number just tests its own columns in the
+     * mask of cells touching a symbol.
+     * @param fileContent the grid representation
+     * @param from first row of the band
+     * @param to row after the last row of the band
+     * @return sum of the numbers in the band touched by symbols
+     */
+    private long sumSymbolledNumbers(List<String> fileContent, int from, int to){
+        int first = max(0, from - 1);
+        List<String> rows = fileContent.subList(first, min(fileContent.size(), to + 1));
+        int width = rows.stream().mapToInt(String::length).max().orElse(0);
+        long[][] touching = adjacencyMasks(symbolMasks(rows, width));
+        long sum = 0;
+        for( int row = from; row < to; row++ ){
+            String line = fileContent.get(row);
+            int col = 0;
+            while( col < line.length() ){
+                if( !Character.isDigit(line.charAt(col)) ) {
+                    col++;
+                    continue;
+                }
+                int start = col;
+                long value = 0;
+                while( col < line.length() && Character.isDigit(line.charAt(col)) ) {
+                    value = value * 10 + line.charAt(col++) - '0';
                 }
+                if( anyBitSet(touching[row - first], start, col - 1) ) sum += value;
             }
-            row++;
         }
         return sum;
     }
 
     /**
-     * Sum all numbers that are touched by a symbol
-     * @param fileContent the grid representation
-     * @param symbols list of all symbols found in the grid with their coordinates
-     * @return sum of all the numbers touched by symbols
+     * Streaming schematic processor that only ever holds three rows. Rows are added one at a time
+     * and the middle row of the window is processed each time. A '*' can only be touched by
+     * numbers in its own row and the rows either side, so once the middle row has been processed
+     * the gears in the row above it are complete and can be summed and dropped.
      */
-    private int sumSymbolledNumbers(List<String> fileContent, List<Symbol> symbols){
-        int sum = 0;
-        int row = 0;
-        String nbr;
-        Matcher matcher;
-
-        Pattern integerPattern = Pattern.compile("\\d+");
-        for( String line : fileContent ){
-            matcher = integerPattern.matcher(line);
-            while (matcher.find()) {
-                nbr = matcher.group();
-                int col = matcher.start();
-                int length = nbr.length();
-                for( Symbol symbol : symbols){
-                    if( symbol.touches(row, col, length)) {
-                        sum += Integer.parseInt(nbr);
-                        break;
+    private class SchematicStream {
+        private final int parts;
+        // window rows, above, current and below
+        private final String[] rows = new String[3];
+        // count and product of the numbers touching each '*' in the window rows
+        private final int[][] gearCounts = { new int[0], new int[0], new int[0] };
+        private final long[][] gearProducts = { new long[0], new long[0], new long[0] };
+        private long partSum = 0;
+        private long gearSum = 0;
+
+        /**
+         * @param parts the number of numbers a gear touches, or ANY_PARTS
+         */
+        public SchematicStream(int parts) {
+            this.parts = parts;
+        }
+
+        /**
+         * Add the next row of the schematic
+         * @param line the row
+         */
+        public void addRow(String line) {
+            // Move the window down a row, reusing the gear arrays of the row that drops off
+            int[] counts = gearCounts[0];
+            long[] products = gearProducts[0];
+            for( int slot = 0; slot < 2; slot++ ) {
+                rows[slot] = rows[slot + 1];
+                gearCounts[slot] = gearCounts[slot + 1];
+                gearProducts[slot] = gearProducts[slot + 1];
+            }
+            int length = line == null ? 0 : line.length();
+            if( counts.length < length ) {
+                counts = new int[length];
+                products = new long[length];
+            } else {
+                Arrays.fill(counts, 0);
+            }
+            rows[2] = line;
+            gearCounts[2] = counts;
+            gearProducts[2] = products;
+
+            processCurrentRow();
+            sumGears(0);
+        }
+
+        /**
+         * Finish the last row
+         * @return {sum of the part numbers, sum of the gears}
+         */
+        public long[] finish() {
+            addRow(null);
+            sumGears(1);
+            return new long[] { partSum, gearSum };
+        }
+
+        /**
+         * Find the numbers in the current row. Add the ones touching a symbol to the part sum and
+         * record them against any '*' they touch.
+         */
+        private void processCurrentRow() {
+            String line = rows[1];
+            if( line == null ) return;
+            int col = 0;
+            while( col < line.length() ) {
+                if( !Character.isDigit(line.charAt(col)) ) {
+                    col++;
+                    continue;
+                }
+                int start = col;
+                long value = 0;
+                while( col < line.length() && Character.isDigit(line.charAt(col)) ) {
+                    value = value * 10 + line.charAt(col++) - '0';
+                }
+                boolean touched = false;
+                for( int slot = 0; slot < 3; slot++ ) {
+                    String neighbours = rows[slot];
+                    if( neighbours == null ) continue;
+                    for( int c = max(0, start - 1); c <= min(col, neighbours.length() - 1); c++ ) {
+                        char chr = neighbours.charAt(c);
+                        if( chr == '.' || Character.isDigit(chr) ) continue;
+                        touched = true;
+                        if( chr == '*' ) {
+                            gearProducts[slot][c] = gearCounts[slot][c] == 0 ? value : gearProducts[slot][c] * value;
+                            gearCounts[slot][c]++;
+                        }
                     }
                 }
+                if( touched ) partSum += value;
             }
-            row++;
         }
-        return sum;
+
+        /**
+         * Add the completed gears of a window row to the gear sum
+         * @param slot window row
+         */
+        private void sumGears(int slot) {
+            if( rows[slot] == null ) return;
+            for( int col = 0; col < rows[slot].length(); col++ ) {
+                int count = gearCounts[slot][col];
+                if( count != 0 && (parts == ANY_PARTS || count == parts) ) gearSum += gearProducts[slot][col];
+            }
+        }
+    }
+
+    /**
+     * Process a schematic file a row at a time without holding it in memory
+     * @param filename name of the schematic file
+     * @param parts the number of numbers a gear touches, or ANY_PARTS
+     * @return {sum of the part numbers, sum of the gears}
+     */
+    long[] streamSchematic(String filename, int parts) {
+        SchematicStream stream = new SchematicStream(parts);
+        FileLoader.forEachLine(filename, stream::addRow);
+        return stream.finish();
     }
+
+    /**
+     * Fork join task that processes a band of schematic rows. A band bigger than the band size is
+     * split in half. A band reads a halo row above and below it so numbers and gears at its edges
+     * are complete, but it only counts part numbers and gears in its own rows. Every row belongs
+     * to exactly one band so nothing is counted twice.
+     */
+    private class BandTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private final List<String> fileContent;
+        private final int from;
+        private final int to;
+        private final int parts;
+        private final int bandSize;
+
+        /**
+         * @param fileContent the grid representation
+         * @param from first row of the band
+         * @param to row after the last row of the band
+         * @param parts the number of numbers a gear touches, or ANY_PARTS
+         * @param bandSize largest band to process without splitting
+         */
+        public BandTask(List<String> fileContent, int from, int to, int parts, int bandSize) {
+            this.fileContent = fileContent;
+            this.from = from;
+            this.to = to;
+            this.parts = parts;
+            this.bandSize = bandSize;
+        }
+
+        @Override
+        protected long[] compute() {
+            if( to - from > bandSize ) {
+                int mid = (from + to) / 2;
+                BandTask top = new BandTask(fileContent, from, mid, parts, bandSize);
+                top.fork();
+                long[] bottom = new BandTask(fileContent, mid, to, parts, bandSize).compute();
+                long[] sums = top.join();
+                return new long[] { sums[0] + bottom[0], sums[1] + bottom[1] };
+            }
+            return new long[] { sumSymbolledNumbers(fileContent, from, to), sumGears(fileContent, from, to, parts) };
+        }
+    }
+
+    /**
+     * Process a schematic in parallel bands of rows, working out both parts in a single pass
+     * @param fileContent the grid representation
+     * @param parts the number of numbers a gear touches, or ANY_PARTS
+     * @param bandSize number of rows in each band
+     * @return {sum of the part numbers, sum of the gears}
+     */
+    long[] processParallel(List<String> fileContent, int parts, int bandSize) {
+        if( fileContent.isEmpty() ) return new long[] { 0, 0 };
+        return ForkJoinPool.commonPool().invoke(new BandTask(fileContent, 0, fileContent.size(), parts, bandSize));
+    }
+
     public void run() {
         List<String> fileContent = FileLoader.readFile("input/day3.txt");
-        List<Symbol> symbols = extractSymbols(fileContent);
-        System.out.println("Part 1: " + sumSymbolledNumbers(fileContent, symbols));
-        System.out.println("Part 2: " + sumGears(fileContent, symbols));
+        long[] sums = processParallel(fileContent, 2, 16);
+        System.out.println("Part 1: " + sums[0]);
+        System.out.println("Part 2: " + sums[1]);
     }
 }
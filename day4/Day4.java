@@ -3,91 +3,156 @@ package day4;
 import util.Day;
 import util.FileLoader;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 public class Day4 implements Day {
-    private record Card(String id, List<Integer> winning, List<Integer> present) {
+    /**
+     * A card with its numbers held as bit masks, bit n % 64 of word n / 64 is set for number n.
+     * @param id card ID
+     * @param winning mask of the winning numbers
+     * @param present mask of the numbers on the card
+     */
+    private record Card(String id, long[] winning, long[] present) {
         /**
-         * count how many numbers are in both lists
-         * @return the number of numbers in both lists
+         * count how many numbers are in both masks
+         * @return the number of numbers in both masks
          */
         public int matching() {
-            return (int)present.stream().filter(winning::contains).count();
+            int count = 0;
+            for( int word = 0; word < min(winning.length, present.length); word++ ) {
+                count += Long.bitCount(winning[word] & present[word]);
+            }
+            return count;
         }
 
         /**
          * Calculate a card score.
          * @return 2 ^ the number of matching numbers or 0 if there are none.
+         * @throws ArithmeticException if the score doesn't fit in a long
          */
-        public int score() {
+        public long score() {
             // Count how many numbers are in both the winning and present lists.
             int count = matching();
             if( count == 0 ) return 0;
-            return 1 << (count - 1);
+            if( count > Long.SIZE - 1 ) throw new ArithmeticException("long overflow");
+            return 1L << (count - 1);
         }
     }
 
     /**
-     * Convert an input line into a Card
-     * @param line input line
+     * Set the bit for a number in a mask, growing the mask if the number doesn't fit
+     * @param mask the mask
+     * @param number the number
+     * @return the mask, or a bigger copy of it
+     */
+    private long[] setBit(long[] mask, int number) {
+        int word = number >>> 6;
+        if( word >= mask.length ) mask = Arrays.copyOf(mask, max(word + 1, mask.length * 2));
+        mask[word] |= 1L << number;
+        return mask;
+    }
+
+    /**
+     * Convert an input line into a Card. The numbers are read straight from the characters into
+     * the masks.
+     * @param line input line, 'Card <id>: <winning numbers> | <numbers>'
      * @return Card
      */
     private Card parseLine(String line) {
-        // parts[0] = card ID, parts[1] = all numbers
-        String[] parts = line.split(":");
-        String id = parts[0];
-        // parts[0] = winning numbers  parts[1] = card numbers
-        parts = parts[1].split("\\|");
-        // convert the two sets of whitespace separated numbers into lists using streams
-        Pattern pattern = Pattern.compile("\\s+");
-        List<Integer> winning =
-                pattern.splitAsStream(parts[0].trim()).map(Integer::valueOf).collect(Collectors.toList());
-        List<Integer> present =
-                pattern.splitAsStream(parts[1].trim()).map(Integer::valueOf).collect(Collectors.toList());
+        int colon = line.indexOf(':');
+        String id = line.substring(0, colon);
+        long[] winning = new long[2];
+        long[] present = new long[2];
+        boolean afterBar = false;
+        int idx = colon + 1;
+        while( idx < line.length() ) {
+            char c = line.charAt(idx);
+            if( c == '|' ) afterBar = true;
+            if( !Character.isDigit(c) ) {
+                idx++;
+                continue;
+            }
+            int number = 0;
+            while( idx < line.length() && Character.isDigit(line.charAt(idx)) ) {
+                number = number * 10 + line.charAt(idx++) - '0';
+            }
+            if( afterBar ) {
+                present = setBit(present, number);
+            } else {
+                winning = setBit(winning, number);
+            }
+        }
         return new Card( id, winning, present );
     }
 
     /**
-     * I'm not going to even try and explain how this works ... It basically counts a pile
-     * of cards that is created by some ridiculous rules in AOC-23
-     * @param cards A list of all the cards
-     * @return the number of cards in the created pile.
+     * Counts the pile of cards created by some ridiculous rules in AOC-23 as the cards go past.
+     * Each card adds its own copies to the pile and wins that many extra copies of each of the
+     * next 'matching' cards. Only the extra copies owed to the cards still to come are kept, in a
+     * ring buffer as wide as the most matches seen so far, so memory doesn't grow with the number
+     * of cards. The scores for part 1 are summed at the same time.
      */
-    private int countPile(List<Card> cards) {
-        List<Integer> pile = new ArrayList<>();
-        // Add a 1 for each original card
-        cards.forEach(i -> pile.add(1));
-
-        int cardId = 0;
-        for( Card current : cards ) {
-            // Find how many numbers match
-            int count = current.matching();
-            // For the number of cards that match, following the current card,
-            // add the number of cards in the current cards pile.
-            int index = cardId;
-            int amount = pile.get(cardId);
-            for (int idx = 0; idx < count; idx++) {
-                index++;
-                pile.set(index, pile.get(index) + amount);
+    private static class PileCounter {
+        private long[] owed = new long[16];
+        private int head = 0;
+        private long pile = 0;
+        private long score = 0;
+
+        /**
+         * Add the next card
+         * @param card the card
+         */
+        public void add(Card card) {
+            // This card plus any copies won by earlier cards
+            long copies = Math.addExact(1, owed[head]);
+            owed[head] = 0;
+            head = (head + 1) % owed.length;
+            pile = Math.addExact(pile, copies);
+            score = Math.addExact(score, card.score());
+
+            // Every copy wins a copy of each of the next 'count' cards
+            int count = card.matching();
+            if( count > owed.length ) grow(count);
+            for( int idx = 0; idx < count; idx++ ) {
+                int slot = (head + idx) % owed.length;
+                owed[slot] = Math.addExact(owed[slot], copies);
             }
-            cardId++;
         }
-        // Add all the pile counts together
-        return pile.stream().reduce(0, Integer::sum);
+
+        /**
+         * Make the ring buffer bigger, keeping the owed copies in order from the head
+         * @param size minimum new size
+         */
+        private void grow(int size) {
+            long[] bigger = new long[max(size, owed.length * 2)];
+            for( int idx = 0; idx < owed.length; idx++ ) {
+                bigger[idx] = owed[(head + idx) % owed.length];
+            }
+            owed = bigger;
+            head = 0;
+        }
+
+        public long getPile() {
+            return pile;
+        }
+
+        public long getScore() {
+            return score;
+        }
     }
 
     public void run() {
-        List<String> fileContent = FileLoader.readFile("input/day4.txt");
-        // Convert each line of input into a Card record
-        List<Card> cards = fileContent.stream().map(this::parseLine).toList();
-        // Sum the scores of all the cards
-        int part1 = cards.stream().mapToInt(Card::score).sum();
-
-        System.out.println("Part 1:" + part1);
-        System.out.println("Part 2: " + countPile(cards));
+        PileCounter counter = new PileCounter();
+        // Convert each line of input into a Card record and count it as it is read
+        FileLoader.forEachLine("input/day4.txt", line -> {
+            if( !line.isEmpty() ) counter.add(parseLine(line));
+        });
+
+        System.out.println("Part 1:" + counter.getScore());
+        System.out.println("Part 2: " + counter.getPile());
     }
 
 }
@@ -11,6 +11,9 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
 public class Day5 implements Day {
     /**
      * Create a Mapper to map a source value to a destination value and vice versa
@@ -69,6 +72,107 @@ public class Day5 implements Day {
         }
     }
 
+    /**
+     * A piece of a piecewise linear function. Every value in the segment is moved by the same offset.
+     * @param start first value in the segment
+     * @param end   value after the last value in the segment
+     * @param offset amount added to a value in the segment to map it
+     */
+    record Segment(long start, long end, long offset) {}
+
+    /**
+     * A piecewise linear function held as a table of segments sorted by start. The table covers
+     * every value from 0 up to LIMIT so a lookup is a binary search on the segment starts.
+     */
+    class SegmentTable {
+        static final long LIMIT = Long.MAX_VALUE / 2;
+        private final long[] starts;
+        private final Segment[] segments;
+
+        /**
+         * Build the table from a list of non-overlapping segments in any order. Neighbouring
+         * segments with the same offset are merged.
+         * @param pieces segments of the function
+         */
+        public SegmentTable(List<Segment> pieces) {
+            List<Segment> sorted = new ArrayList<>(pieces);
+            sorted.sort(Comparator.comparingLong(Segment::start));
+            List<Segment> merged = new ArrayList<>();
+            for (Segment segment : sorted) {
+                if (segment.start() >= segment.end()) continue;
+                if (!merged.isEmpty()) {
+                    Segment last = merged.get(merged.size() - 1);
+                    if (last.end() == segment.start() && last.offset() == segment.offset()) {
+                        merged.set(merged.size() - 1, new Segment(last.start(), segment.end(), last.offset()));
+                        continue;
+                    }
+                }
+                merged.add(segment);
+            }
+            segments = merged.toArray(new Segment[0]);
+            starts = merged.stream().mapToLong(Segment::start).toArray();
+        }
+
+        /**
+         * Find the index of the segment that would hold a value
+         * @param value value to find
+         * @return index of the last segment starting at or before the value or -1 if there isn't one
+         */
+        private int indexOf(long value) {
+            int idx = Arrays.binarySearch(starts, value);
+            return idx >= 0 ? idx : -idx - 2;
+        }
+
+        /**
+         * Map a value through the function. Values outside the table map to themselves.
+         * @param value value to map
+         * @return mapped value
+         */
+        public long map(long value) {
+            int idx = indexOf(value);
+            if (idx < 0 || value >= segments[idx].end()) return value;
+            return value + segments[idx].offset();
+        }
+
+        /**
+         * Compose this function with the next one so that a single lookup does both
+         * @param next function applied to the output of this one
+         * @return a table equivalent to mapping through this table then the next
+         */
+        public SegmentTable andThen(SegmentTable next) {
+            List<Segment> composed = new ArrayList<>();
+            for (Segment segment : segments) {
+                // The values this segment maps to
+                long from = segment.start() + segment.offset();
+                long to = segment.end() + segment.offset();
+                // Split them at the boundaries of the next table
+                for (int idx = max(0, next.indexOf(from)); idx < next.segments.length; idx++) {
+                    Segment other = next.segments[idx];
+                    if (other.start() >= to) break;
+                    long pieceStart = max(from, other.start());
+                    long pieceEnd = min(to, other.end());
+                    if (pieceStart >= pieceEnd) continue;
+                    composed.add(new Segment(pieceStart - segment.offset(), pieceEnd - segment.offset(),
+                            segment.offset() + other.offset()));
+                }
+            }
+            return new SegmentTable(composed);
+        }
+
+        /**
+         * Get the number of segments in the table
+         * @return segment count
+         */
+        public int size() {
+            return segments.length;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(segments);
+        }
+    }
+
     class Mapping {
         List<Mapper> mappers = new ArrayList<>();
 
@@ -104,6 +208,71 @@ public class Day5 implements Day {
             return value;
         }
 
+        /**
+         * Map a list of source ranges to their destination ranges. Each range is split at the
+         * boundaries of any mappers it overlaps. The overlapping part is moved to the mapper's
+         * destination and whatever is left over is tried against the remaining mappers. Anything
+         * not covered by a mapper maps to itself.
+         * @param ranges source ranges
+         * @return destination ranges
+         */
+        public List<SeedRange> mapRangesToDest(List<SeedRange> ranges) {
+            List<SeedRange> mapped = new ArrayList<>();
+            List<SeedRange> unmapped = ranges;
+            for (Mapper mapper : mappers) {
+                List<SeedRange> remaining = new ArrayList<>();
+                for (SeedRange range : unmapped) {
+                    long start = range.source();
+                    long end = start + range.range();
+                    long overlapStart = max(start, mapper.source());
+                    long overlapEnd = min(end, mapper.source() + mapper.range());
+                    if (overlapStart >= overlapEnd) {
+                        // No overlap so leave it for the next mapper
+                        remaining.add(range);
+                        continue;
+                    }
+                    mapped.add(new SeedRange(mapper.mapToDest(overlapStart), overlapEnd - overlapStart));
+                    // Keep the bits either side of the overlap
+                    if (start < overlapStart) remaining.add(new SeedRange(start, overlapStart - start));
+                    if (overlapEnd < end) remaining.add(new SeedRange(overlapEnd, end - overlapEnd));
+                }
+                unmapped = remaining;
+            }
+            mapped.addAll(unmapped);
+            return mapped;
+        }
+
+        /**
+         * Build a segment table for this mapping. The first mapper covering a value wins and any
+         * value not covered by a mapper maps to itself, the same as mapToDest and mapToSource.
+         * @param toDest true to map source to destination, false to map destination to source
+         * @return segment table for the mapping
+         */
+        public SegmentTable toSegmentTable(boolean toDest) {
+            List<Segment> segments = new ArrayList<>();
+            List<Segment> uncovered = List.of(new Segment(0, SegmentTable.LIMIT, 0));
+            for (Mapper mapper : mappers) {
+                long start = toDest ? mapper.source() : mapper.dest();
+                long end = start + mapper.range();
+                long offset = toDest ? mapper.dest() - mapper.source() : mapper.source() - mapper.dest();
+                List<Segment> remaining = new ArrayList<>();
+                for (Segment gap : uncovered) {
+                    long overlapStart = max(gap.start(), start);
+                    long overlapEnd = min(gap.end(), end);
+                    if (overlapStart >= overlapEnd) {
+                        remaining.add(gap);
+                        continue;
+                    }
+                    segments.add(new Segment(overlapStart, overlapEnd, offset));
+                    if (gap.start() < overlapStart) remaining.add(new Segment(gap.start(), overlapStart, 0));
+                    if (overlapEnd < gap.end()) remaining.add(new Segment(overlapEnd, gap.end(), 0));
+                }
+                uncovered = remaining;
+            }
+            segments.addAll(uncovered);
+            return new SegmentTable(segments);
+        }
+
         /**
          * Find the mapper with the highest destination range and return the maximum destination value
          * @return maximum destination value handled by all mappers in this mapping
@@ -119,6 +288,50 @@ public class Day5 implements Day {
         }
     }
 
+    /**
+     * The whole chain of mappings folded into one seed to location table and one location to
+     * seed table.
+     */
+    class CompiledMapping {
+        private final SegmentTable toDest;
+        private final SegmentTable toSource;
+
+        /**
+         * Compile a chain of mappings
+         * @param maps mappings in seed to location order
+         */
+        public CompiledMapping(List<Mapping> maps) {
+            SegmentTable dest = new SegmentTable(List.of(new Segment(0, SegmentTable.LIMIT, 0)));
+            for (Mapping map : maps) {
+                dest = dest.andThen(map.toSegmentTable(true));
+            }
+            SegmentTable source = new SegmentTable(List.of(new Segment(0, SegmentTable.LIMIT, 0)));
+            for (int i = maps.size() - 1; i >= 0; i--) {
+                source = source.andThen(maps.get(i).toSegmentTable(false));
+            }
+            toDest = dest;
+            toSource = source;
+        }
+
+        /**
+         * Map a seed all the way to its location
+         * @param value seed
+         * @return location
+         */
+        public long mapToDest(long value) {
+            return toDest.map(value);
+        }
+
+        /**
+         * Map a location all the way back to its seed
+         * @param value location
+         * @return seed
+         */
+        public long mapToSource(long value) {
+            return toSource.map(value);
+        }
+    }
+
     private List<Mapping> createMappings(List<String> fileInput) {
         List<Mapping> mappings = new ArrayList<>();
         String line;
@@ -145,14 +358,11 @@ public class Day5 implements Day {
     private long part1(List<String> fileContent) {
         String seedLine = fileContent.get(0).split(":")[1].trim();
         long[] seeds = Arrays.stream(seedLine.split("\s+")).mapToLong(Long::parseLong).toArray();
-        List<Mapping> maps = createMappings(fileContent);
+        CompiledMapping compiled = new CompiledMapping(createMappings(fileContent));
 
         long min = Long.MAX_VALUE;
         for (long seed : seeds) {
-            long next = seed;
-            for (int i = 0; i < maps.size(); i++) {
-                next = maps.get(i).mapToDest(next);
-            }
+            long next = compiled.mapToDest(seed);
             if (next < min) min = next;
         }
         return min;
@@ -167,21 +377,13 @@ public class Day5 implements Day {
         }
         List<Mapping> maps = createMappings(fileContent);
 
-        // Get the maximum location value
-        long max = maps.get(maps.size() - 1).getMax();
-        for (int location = 0; location < max; location++) {
-            long mappedLocation = location;
-            // Map the location back to it's seed number
-            for (int j = maps.size() - 1; j >= 0; j--) {
-                mappedLocation = maps.get(j).mapToSource(mappedLocation);
-            }
-            // If that seed number is in range for any seeds... bingo.
-            for (SeedRange seed : seedList) {
-                if (seed.inRange(mappedLocation)) return location;
-            }
+        // Push the whole seed ranges through each mapping, splitting them as we go. The lowest
+        // location is then the start of one of the resulting ranges.
+        List<SeedRange> ranges = seedList;
+        for (Mapping map : maps) {
+            ranges = map.mapRangesToDest(ranges);
         }
-        // Something has gone badly wrong !!!
-        return -1;
+        return ranges.stream().mapToLong(SeedRange::source).min().orElse(-1);
     }
 
     public void run() {
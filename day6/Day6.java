@@ -3,41 +3,82 @@ package day6;
 import util.Day;
 import util.FileLoader;
 
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.List;
 
 public class Day6 implements Day {
 
     /**
-     * Run a race
+     * Run a race. Holding the button for h of the race time t travels h * (t - h), so the winning
+     * hold times are the whole numbers strictly between the roots of h^2 - t*h + d = 0, which are
+     * (t +/- sqrt(t^2 - 4d)) / 2. The roots are found with an exact integer square root and then
+     * corrected so they are exactly right. This uses longs and falls back to BigIntegers if they
+     * would overflow.
      * @param time      Race time
      * @param distance  current best distance
      * @return the number of ways there are of beating the best distance
      */
     long runRace(long time, long distance) {
-        long count = 0;
-        /**
-         * We only need to test half of the values since they will be mirrored past the halfway
-         * point.
-         */
-        for( int idx = 1; idx < time/2; idx++ ){
-            long test = idx * (time-idx);
-            if( test > distance ){
-                // Add 2 because we're only testing half the numbers
-                count += 2;
-            }
+        try {
+            long discriminant = Math.subtractExact(Math.multiplyExact(time, time), Math.multiplyExact(4, distance));
+            if( discriminant < 0 ) return 0;
+            long low = (time - isqrt(discriminant)) / 2;
+            // Move to the first winning hold time. The results are mirrored past the halfway point
+            // so the last winning hold time is time - low.
+            while( low > 0 && beats(low - 1, time, distance) ) low--;
+            while( low <= time / 2 && !beats(low, time, distance) ) low++;
+            if( low > time / 2 ) return 0;
+            return time - 2 * low + 1;
         }
-        /**
-         * The value in the centre will always be the maximum possible value so we make a huge
-         * assumption here that it's better than the distance value. It the time was even then there
-         * will be one max value. If the time was odd, there will be 2.
-         */
-        if( time % 2 == 0 ){
-            count++;
-        } else {
-            count += 2;
+        catch( ArithmeticException overflow ) {
+            return runRace(BigInteger.valueOf(time), BigInteger.valueOf(distance)).longValueExact();
         }
-        return count;
+    }
+
+    /**
+     * Run a race with numbers too big for longs. See runRace(long, long)
+     * @param time      Race time
+     * @param distance  current best distance
+     * @return the number of ways there are of beating the best distance
+     */
+    BigInteger runRace(BigInteger time, BigInteger distance) {
+        BigInteger discriminant = time.multiply(time).subtract(distance.shiftLeft(2));
+        if( discriminant.signum() < 0 ) return BigInteger.ZERO;
+        BigInteger half = time.shiftRight(1);
+        BigInteger low = time.subtract(discriminant.sqrt()).shiftRight(1);
+        while( low.signum() > 0 && beats(low.subtract(BigInteger.ONE), time, distance) ) low = low.subtract(BigInteger.ONE);
+        while( low.compareTo(half) <= 0 && !beats(low, time, distance) ) low = low.add(BigInteger.ONE);
+        if( low.compareTo(half) > 0 ) return BigInteger.ZERO;
+        return time.subtract(low.shiftLeft(1)).add(BigInteger.ONE);
+    }
+
+    /**
+     * Exact integer square root
+     * @param value a value that isn't negative
+     * @return the largest number whose square is no bigger than value
+     */
+    long isqrt(long value) {
+        long root = (long) Math.sqrt((double) value);
+        // The double result can be out by one either way for big values
+        while( root > 0 && root > value / root ) root--;
+        while( root + 1 <= value / (root + 1) ) root++;
+        return root;
+    }
+
+    /**
+     * Checks if holding the button for a time beats the distance
+     * @param hold      time the button is held for
+     * @param time      Race time
+     * @param distance  current best distance
+     * @return true if the distance is beaten
+     */
+    private boolean beats(long hold, long time, long distance) {
+        return Math.multiplyExact(hold, time - hold) > distance;
+    }
+
+    private boolean beats(BigInteger hold, BigInteger time, BigInteger distance) {
+        return hold.multiply(time.subtract(hold)).compareTo(distance) > 0;
     }
 
     long part1(List<String> fileContent){
@@ -3,8 +3,7 @@ package day7;
 import util.Day;
 import util.FileLoader;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -12,12 +11,13 @@ import java.util.List;
  */
 public class Day7 implements Day {
 
-    private class Hand implements Comparable {
+    private class Hand {
         enum HandType { HIGH_CARD, PAIR, TWO_PAIR, THREE, FULL_HOUSE, FOUR, FIVE }
         private final HandType handType;
         private final String hand;
         private final int bet;
         private final boolean joker;
+        private final long rank;
 
         /**
          * Create a hand
@@ -30,6 +30,21 @@ public class Day7 implements Day {
             this.bet = bet;
             this.joker = joker;
             this.handType = analyse(hand);
+            this.rank = encode();
+        }
+
+        /**
+         * Pack the hand into a rank. The hand type is in the top bits followed by a 4 bit rank
+         * for each card in order, so comparing ranks compares hands.
+         * @return the packed rank
+         */
+        private long encode() {
+            String faces = joker ? "J23456789TQKA" : "23456789TJQKA";
+            long rank = handType.ordinal();
+            for( int idx = 0; idx < 5; idx++ ) {
+                rank = (rank << 4) | faces.indexOf(hand.charAt(idx));
+            }
+            return rank;
         }
 
         /**
@@ -96,25 +111,13 @@ public class Day7 implements Day {
         }
 
         /**
-         * Card face comparator for sorting
-         * @param o the object to be compared.
-         * @return -1, 0 or 1 depending if faces are < = > the compared hand
+         * Get the sort key for this hand. The position of the hand in the input is in the low 32
+         * bits so equal hands keep their input order and the bet can be looked up after sorting.
+         * @param position index of the hand in the input
+         * @return packed hand type, card ranks and position
          */
-        @Override
-        public int compareTo(Object o) {
-            String faces = joker ? "J23456789TQKA" : "23456789TJQKA";
-            Hand other = (Hand)o;
-            int hType = handType.compareTo(other.handType);
-            if( hType != 0) return hType;
-            char[] thisHand = hand.toCharArray();
-            char[] otherHand = other.hand.toCharArray();
-            for( int idx = 0; idx < 5; idx++) {
-                int thisCard = faces.indexOf(thisHand[idx]);
-                int otherCard = faces.indexOf(otherHand[idx]);
-                if( thisCard == otherCard ) continue;
-                return thisCard > otherCard ? 1 : -1;
-            }
-            return 0;
+        public long getKey(int position) {
+            return (rank << 32) | position;
         }
 
         @Override
@@ -123,38 +126,40 @@ public class Day7 implements Day {
         }
     }
 
-    private long part1(List<String> fileContent) {
-        List<Hand> hands = new ArrayList<>();
+    /**
+     * Rank all the hands and add up the winnings. The hands are sorted as packed keys so there
+     * are no comparisons between Hand objects. The bets are kept in input order alongside them.
+     * @param fileContent hands and bets, one per line
+     * @param joker if true, J cards are to be treated as Jokers, Jacks if false
+     * @return total winnings
+     */
+    private long totalWinnings(List<String> fileContent, boolean joker) {
+        long[] keys = new long[fileContent.size()];
+        int[] bets = new int[fileContent.size()];
+        int count = 0;
         for( String line : fileContent ){
+            if( line.isBlank() ) continue;
             String[] parts = line.split("\\s+");
-            hands.add( new Hand(parts[0], Integer.parseInt(parts[1]),false));
+            Hand hand = new Hand(parts[0], Integer.parseInt(parts[1]), joker);
+            bets[count] = hand.getBet();
+            keys[count] = hand.getKey(count);
+            count++;
         }
-        Collections.sort(hands);
-//        hands.forEach(System.out::println);
-        int idx = 1;
+        Arrays.sort(keys, 0, count);
         long sum = 0;
-        for( Hand hand : hands ) {
-            sum += (long) hand.getBet() * idx;
-            idx++;
+        for( int idx = 0; idx < count; idx++ ) {
+            // The input position of the hand is in the low 32 bits of the key
+            sum += (long) bets[(int) keys[idx]] * (idx + 1);
         }
         return sum;
     }
 
+    private long part1(List<String> fileContent) {
+        return totalWinnings(fileContent, false);
+    }
+
     private long part2(List<String> fileContent) {
-        List<Hand> hands = new ArrayList<>();
-        for( String line : fileContent ){
-            String[] parts = line.split("\\s+");
-            hands.add( new Hand(parts[0], Integer.parseInt(parts[1]),true));
-        }
-        Collections.sort(hands);
-//        hands.forEach(System.out::println);
-        int idx = 1;
-        long sum = 0;
-        for( Hand hand : hands ) {
-            sum += (long) hand.getBet() * idx;
-            idx++;
-        }
-        return sum;
+        return totalWinnings(fileContent, true);
     }
 
 
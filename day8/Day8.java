@@ -4,81 +4,376 @@ import util.Day;
 import util.FileLoader;
 import util.Mathematics;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-
-import static java.lang.Math.max;
-import static java.lang.Math.min;
+import java.util.stream.LongStream;
 
 public class Day8 implements Day {
 
-    private record Connection(String left, String right ){}
+    /**
+     * The node network compiled into arrays. Each node name is given an int index and the left
+     * and right connections are held in int arrays so following a route needs no lookups by name.
+     */
+    private class Graph {
+        private final Map<String, Integer> ids;
+        private final int[] left;
+        private final int[] right;
+        // nodes ending in 'A' and 'Z'
+        private final BitSet starts;
+        private final BitSet ends;
+
+        /**
+         * Create the graph arrays
+         * @param ids node name to index map. Indexes must run from 0 to ids.size() - 1
+         */
+        public Graph(Map<String, Integer> ids) {
+            int size = ids.size();
+            this.ids = ids;
+            left = new int[size];
+            right = new int[size];
+            starts = new BitSet(size);
+            ends = new BitSet(size);
+            for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+                int node = entry.getValue();
+                String name = entry.getKey();
+                // Until a node is connected it just loops back to itself
+                left[node] = node;
+                right[node] = node;
+                if (name.endsWith("A")) starts.set(node);
+                if (name.endsWith("Z")) ends.set(node);
+            }
+        }
+
+        /**
+         * Get the index of a node
+         * @param name node name
+         * @return node index or -1 if there isn't a node with that name
+         */
+        public int indexOf(String name) {
+            return ids.getOrDefault(name, -1);
+        }
+
+        /**
+         * Connect a node to its left and right nodes
+         * @param node node index
+         * @param leftNode index of the node to the left
+         * @param rightNode index of the node to the right
+         */
+        public void connect(int node, int leftNode, int rightNode) {
+            left[node] = leftNode;
+            right[node] = rightNode;
+        }
+
+        /**
+         * Take one step from a node
+         * @param node node index
+         * @param turn 'L' to go left, anything else goes right
+         * @return index of the node reached
+         */
+        public int next(int node, char turn) {
+            return turn == 'L' ? left[node] : right[node];
+        }
+
+        public boolean isEnd(int node) {
+            return ends.get(node);
+        }
+
+        public int size() {
+            return left.length;
+        }
+    }
 
-    private Map<String, Connection> parseFileContent( List<String> fileContent ){
-        // TreeMap
-        Map<String, Connection> connectionMap = new TreeMap<>();
+    /**
+     * Jump tables over whole passes through the directions. Level k holds the node reached after
+     * 2^k passes from each node and whether an end node is visited on the way, so a route can skip
+     * over passes with no end node in O(log N) jumps. Only level 0 is built up front, the higher
+     * levels are added the first time something needs them.
+     */
+    private class JumpTable {
+        private final char[] directions;
+        private final Graph graph;
+        private int[][] jump;
+        private BitSet[] touchesEnd;
+
+        /**
+         * Build the first level of the jump tables
+         * @param directions the left/right directions
+         * @param graph the node network
+         */
+        public JumpTable(char[] directions, Graph graph) {
+            this.directions = directions;
+            this.graph = graph;
+            jump = new int[1][graph.size()];
+            touchesEnd = new BitSet[1];
+
+            // Level 0 is one pass through the directions
+            touchesEnd[0] = new BitSet(graph.size());
+            for( int node = 0; node < graph.size(); node++ ) {
+                int location = node;
+                for( char turn : directions ) {
+                    if( graph.isEnd(location) ) touchesEnd[0].set(node);
+                    location = graph.next(location, turn);
+                }
+                jump[0][node] = location;
+            }
+        }
+
+        /**
+         * Make sure there are at least a number of levels
+         * @param levels number of levels needed
+         */
+        private void ensureLevels(int levels) {
+            int built = jump.length;
+            if( built >= levels ) return;
+            jump = Arrays.copyOf(jump, levels);
+            touchesEnd = Arrays.copyOf(touchesEnd, levels);
+            // Each level is two jumps on the level below
+            for( int level = built; level < levels; level++ ) {
+                int[] below = jump[level - 1];
+                jump[level] = new int[graph.size()];
+                touchesEnd[level] = new BitSet(graph.size());
+                for( int node = 0; node < graph.size(); node++ ) {
+                    int halfway = below[node];
+                    jump[level][node] = below[halfway];
+                    if( touchesEnd[level - 1].get(node) || touchesEnd[level - 1].get(halfway) ) {
+                        touchesEnd[level].set(node);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Find where a route ends up after a number of steps
+         * @param node index of the start node
+         * @param steps number of steps to take
+         * @return index of the node reached
+         */
+        public int nodeAfter(int node, long steps) {
+            if( steps < 0 ) throw new IllegalArgumentException("Negative step count " + steps);
+            long passes = steps / directions.length;
+            ensureLevels(64 - Long.numberOfLeadingZeros(passes));
+            for( int level = 0; passes != 0; level++, passes >>= 1 ) {
+                if( (passes & 1) != 0 ) node = jump[level][node];
+            }
+            for( int idx = 0; idx < steps % directions.length; idx++ ) {
+                node = graph.next(node, directions[idx]);
+            }
+            return node;
+        }
+
+        /**
+         * Count the steps from a node to the first end node
+         * @param node index of the start node
+         * @return number of steps or -1 if an end node is never reached
+         */
+        public long stepsToEnd(int node) {
+            // The node at the start of each pass repeats within size() passes, so if skipping
+            // 2^levels - 1 >= size() passes never visits an end node then nothing ever will
+            ensureLevels(32 - Integer.numberOfLeadingZeros(graph.size()));
+
+            // Skip as many passes as possible without visiting an end node
+            long passes = 0;
+            for( int level = jump.length - 1; level >= 0; level-- ) {
+                if( !touchesEnd[level].get(node) ) {
+                    node = jump[level][node];
+                    passes += 1L << level;
+                }
+            }
+            if( !touchesEnd[0].get(node) ) return -1;
 
+            // The end node is somewhere in this pass
+            long steps = passes * directions.length;
+            for( char turn : directions ) {
+                if( graph.isEnd(node) ) break;
+                node = graph.next(node, turn);
+                steps++;
+            }
+            return steps;
+        }
+
+        /**
+         * Check if a pass through the directions from a node visits an end node
+         * @param node index of the start node
+         * @return true if an end node is visited
+         */
+        public boolean passTouchesEnd(int node) {
+            return touchesEnd[0].get(node);
+        }
+
+        /**
+         * Get the node reached after a pass through the directions
+         * @param node index of the start node
+         * @return index of the node reached
+         */
+        public int afterPass(int node) {
+            return jump[0][node];
+        }
+    }
+
+    /**
+     * The route a ghost takes, broken down into a tail that is only walked once and a cycle that
+     * repeats forever after it.
+     * @param tail number of steps before the cycle starts
+     * @param cycle number of steps in the cycle
+     * @param tailHits steps in the tail that are on an end node, in order
+     * @param cycleHits steps in the first lap of the cycle that are on an end node, in order
+     */
+    private record Cycle(long tail, long cycle, long[] tailHits, long[] cycleHits) {
+        /**
+         * Check if the ghost is on an end node after a number of steps
+         * @param step number of steps taken
+         * @return true if the ghost is on an end node
+         */
+        public boolean hits(long step) {
+            if( step < tail ) return Arrays.binarySearch(tailHits, step) >= 0;
+            return Arrays.binarySearch(cycleHits, tail + (step - tail) % cycle) >= 0;
+        }
+    }
+
+    private Graph parseFileContent( List<String> fileContent ){
         // AAA = (BBB, CCC)
         Pattern pattern = Pattern.compile("^([A-Z]+)\\s+=\\s+\\(([A-Z]+),\\s+([A-Z]+)\\)");
         Matcher matcher;
+        List<String[]> connections = new ArrayList<>();
         for( String line : fileContent ) {
             matcher = pattern.matcher(line);
             while(matcher.find()){
-                connectionMap.put(matcher.group(1), new Connection(matcher.group(2), matcher.group(3)));
+                connections.add(new String[] {matcher.group(1), matcher.group(2), matcher.group(3)});
             }
         }
-        return connectionMap;
+
+        // Give every node name an index, defined nodes first
+        Map<String, Integer> ids = new HashMap<>();
+        for( String[] connection : connections ) {
+            ids.putIfAbsent(connection[0], ids.size());
+        }
+        for( String[] connection : connections ) {
+            ids.putIfAbsent(connection[1], ids.size());
+            ids.putIfAbsent(connection[2], ids.size());
+        }
+
+        Graph graph = new Graph(ids);
+        for( String[] connection : connections ) {
+            graph.connect(ids.get(connection[0]), ids.get(connection[1]), ids.get(connection[2]));
+        }
+        return graph;
+    }
+
+    long part1(JumpTable jumps, Graph graph){
+        return jumps.stepsToEnd(graph.indexOf("AAA"));
     }
 
-    int followRoute(String start, char[] directions, Map<String, Connection> routes){
-        String location = start;
-        int directionIdx = 0;
-        int steps = 0;
-        while(!location.endsWith("Z")) {
-            char turn = directions[directionIdx];
-            directionIdx++;
-            if( directionIdx >= directions.length ) directionIdx = 0;
-            Connection connection = routes.get(location);
-            if( turn == 'L') {
-                location = connection.left;
-            } else {
-                location = connection.right;
+    /**
+     * Walk a ghost's route until it starts repeating. The state of a ghost is its node and its
+     * position in the directions, but only the node at the start of each pass through the
+     * directions needs remembering. When one of those repeats, everything after it repeats too.
+     * @param start index of the start node
+     * @param directions the left/right directions
+     * @param graph the node network
+     * @param jumps jump tables used to skip passes that don't visit an end node
+     * @return the tail and cycle of the route with every step on an end node
+     */
+    Cycle analyseCycle(int start, char[] directions, Graph graph, JumpTable jumps) {
+        int[] firstPass = new int[graph.size()];
+        Arrays.fill(firstPass, -1);
+        LongStream.Builder hits = LongStream.builder();
+
+        int location = start;
+        long step = 0;
+        int pass = 0;
+        while( firstPass[location] < 0 ) {
+            firstPass[location] = pass;
+            pass++;
+            if( !jumps.passTouchesEnd(location) ) {
+                location = jumps.afterPass(location);
+                step += directions.length;
+                continue;
+            }
+            for( char turn : directions ) {
+                if( graph.isEnd(location) ) hits.add(step);
+                location = graph.next(location, turn);
+                step++;
             }
-            steps++;
         }
 
-        return steps;
+        long tail = (long) firstPass[location] * directions.length;
+        long[] allHits = hits.build().toArray();
+        long[] tailHits = Arrays.stream(allHits).filter(hit -> hit < tail).toArray();
+        long[] cycleHits = Arrays.stream(allHits).filter(hit -> hit >= tail).toArray();
+        return new Cycle(tail, step - tail, tailHits, cycleHits);
     }
 
-    int part1(List<String> fileContent){
-        char[] directions = fileContent.get(0).toCharArray();
-        Map<String, Connection> routes = parseFileContent(fileContent);
-        return followRoute("AAA", directions, routes);
-    }
+    long part2(char[] directions, Graph graph, JumpTable jumps) {
+        // Each ghost's route can be worked out on its own
+        List<Cycle> cycles = graph.starts.stream().parallel()
+                .mapToObj(start -> analyseCycle(start, directions, graph, jumps))
+                .toList();
+        if( cycles.isEmpty() ) return 0;
 
-    long part2(List<String> fileContent) {
-        char[] directions = fileContent.get(0).toCharArray();
-        Map<String, Connection> routes = parseFileContent(fileContent);
+        // An answer before every ghost is cycling has to be one of the tail hits of the ghost
+        // with the longest tail
+        Cycle longest = cycles.stream().max(Comparator.comparingLong(Cycle::tail)).get();
+        for( long step : longest.tailHits() ) {
+            if( cycles.stream().allMatch(cycle -> cycle.hits(step)) ) return step;
+        }
 
-        List<Long> steps = new ArrayList<>();
-        for( String location : routes.keySet()){
-            if( location.endsWith("A")){
-                steps.add((long)followRoute(location, directions, routes));
+        // After that every ghost is cycling so a step is a hit for a ghost if it is congruent to
+        // one of its cycle hits. Combine the congruences for all the ghosts. The combined modulus
+        // can outgrow a long before the answer does, so this is done with BigIntegers.
+        List<BigInteger> remainders = List.of(BigInteger.ZERO);
+        BigInteger modulus = BigInteger.ONE;
+        for( Cycle cycle : cycles ) {
+            BigInteger cycleLength = BigInteger.valueOf(cycle.cycle());
+            long[] ghostRemainders = Arrays.stream(cycle.cycleHits()).map(hit -> hit % cycle.cycle()).distinct().toArray();
+            List<BigInteger> combined = new ArrayList<>();
+            BigInteger combinedModulus = modulus;
+            for( BigInteger remainder : remainders ) {
+                for( long ghostRemainder : ghostRemainders ) {
+                    BigInteger[] solution = Mathematics.crt(remainder, modulus, BigInteger.valueOf(ghostRemainder), cycleLength);
+                    if( solution == null ) continue;
+                    combined.add(solution[0]);
+                    combinedModulus = solution[1];
+                }
             }
+            remainders = combined.stream().distinct().toList();
+            modulus = combinedModulus;
+            // The ghosts never line up
+            if( remainders.isEmpty() ) return -1;
         }
-        return Mathematics.lcm(steps);
+
+        // Find the first matching step once every ghost is in its cycle
+        BigInteger tail = BigInteger.valueOf(longest.tail());
+        BigInteger best = null;
+        for( BigInteger remainder : remainders ) {
+            BigInteger step = remainder;
+            if( step.compareTo(tail) < 0 ) {
+                BigInteger laps = tail.subtract(remainder).add(modulus).subtract(BigInteger.ONE).divide(modulus);
+                step = step.add(laps.multiply(modulus));
+            }
+            if( best == null || step.compareTo(best) < 0 ) best = step;
+        }
+        // The ghosts do line up but too far out to count in a long
+        if( best.bitLength() >= Long.SIZE ) return -1;
+        return best.longValue();
     }
 
 
     @Override
     public void run() {
         List<String> fileContent = FileLoader.readFile("input/day8.txt");
+        char[] directions = fileContent.get(0).toCharArray();
+        Graph graph = parseFileContent(fileContent);
+        JumpTable jumps = new JumpTable(directions, graph);
         System.out.println("Day 8");
-        System.out.println("Part 1: " + part1(fileContent));
-        System.out.println("Part 2: " + part2(fileContent));
+        System.out.println("Part 1: " + part1(jumps, graph));
+        System.out.println("Part 2: " + part2(directions, graph, jumps));
     }
 }
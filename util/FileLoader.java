@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class FileLoader {
@@ -30,6 +31,25 @@ public class FileLoader {
         return fileContent;
     }
 
+    /**
+     * Read a text file a line at a time without holding the whole file in memory
+     * @param filename name of file
+     * @param consumer called with each line of the file in order
+     */
+    public static void forEachLine(String filename, Consumer<String> consumer) {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(filename));
+            String line;
+            while( (line = reader.readLine()) != null) {
+                consumer.accept(line);
+            }
+            reader.close();
+        }
+        catch( IOException ioe ) {
+            ioe.printStackTrace();
+        }
+    }
+
     /**
      * Read a text file of integers separated by a delimiter into an Integer array
      * @param filename name of file
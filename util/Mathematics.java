@@ -1,5 +1,6 @@
 package util;
 
+import java.math.BigInteger;
 import java.util.List;
 import java.util.Map;
 
@@ -36,4 +37,45 @@ public class Mathematics {
     public static long lcm(List<Long> numbers) {
         return numbers.stream().reduce(1L, Mathematics::lcm);
     }
+
+    /**
+     * Combine two congruences, x = first (mod firstModulus) and x = second (mod secondModulus), into a
+     * single congruence using the generalised Chinese remainder theorem. The moduli don't need to be
+     * coprime.
+     * @param first remainder of the first congruence
+     * @param firstModulus modulus of the first congruence
+     * @param second remainder of the second congruence
+     * @param secondModulus modulus of the second congruence
+     * @return {remainder, modulus} of the combined congruence or null if there is no solution
+     * @throws ArithmeticException if the combined modulus doesn't fit in a long
+     */
+    public static long[] crt(long first, long firstModulus, long second, long secondModulus) {
+        BigInteger[] solution = crt(BigInteger.valueOf(first), BigInteger.valueOf(firstModulus),
+                BigInteger.valueOf(second), BigInteger.valueOf(secondModulus));
+        if (solution == null) return null;
+        return new long[] { solution[0].longValueExact(), solution[1].longValueExact() };
+    }
+
+    /**
+     * Combine two congruences the same way as the long version, for moduli of any size
+     * @param first remainder of the first congruence
+     * @param firstModulus modulus of the first congruence
+     * @param second remainder of the second congruence
+     * @param secondModulus modulus of the second congruence
+     * @return {remainder, modulus} of the combined congruence or null if there is no solution
+     */
+    public static BigInteger[] crt(BigInteger first, BigInteger firstModulus, BigInteger second, BigInteger secondModulus) {
+        BigInteger gcd = firstModulus.gcd(secondModulus);
+        BigInteger difference = second.subtract(first);
+        if (difference.mod(gcd).signum() != 0) return null;
+
+        // x = first + firstModulus * k so solve firstModulus * k = second - first (mod secondModulus)
+        BigInteger step = secondModulus.divide(gcd);
+        BigInteger k = difference.divide(gcd)
+                .multiply(firstModulus.divide(gcd).modInverse(step))
+                .mod(step);
+        BigInteger modulus = firstModulus.multiply(step);
+        BigInteger remainder = first.add(firstModulus.multiply(k)).mod(modulus);
+        return new BigInteger[] { remainder, modulus };
+    }
 }